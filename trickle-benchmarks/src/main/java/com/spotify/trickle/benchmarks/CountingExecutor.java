@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle.benchmarks;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An executor that counts the tasks submitted to it before passing them on to another executor.
+ */
+final class CountingExecutor implements Executor {
+  private final Executor delegate;
+  private final AtomicLong submissions = new AtomicLong();
+
+  CountingExecutor(Executor delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    submissions.incrementAndGet();
+    delegate.execute(command);
+  }
+
+  long submissions() {
+    return submissions.get();
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle.benchmarks;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of running graphs of different shapes on different kinds of executors.
+ * Run using the {@link #main(String[])} method, or using the shaded jar:
+ *
+ * <pre>
+ *   java -jar target/benchmarks.jar GraphBenchmark -prof gc
+ * </pre>
+ *
+ * The GC profiler reports the allocated bytes per run as {@code gc.alloc.rate.norm}.
+ *
+ * The tasks that runs submit to the executor are counted. JMH reports the count as the
+ * {@code submissions} counter, as a rate like the score, and the average number of submissions
+ * per run is printed at the end of each trial. Comparing {@link Shape#SYNC_CHAIN}, which is fused
+ * into a single task, with {@link Shape#DEEP_CHAIN}, a chain of the same length of asynchronous
+ * nodes that can't be fused, shows the submissions that fusion saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+  private static final int SIZE = 100;
+
+  /**
+   * The graphs to run.
+   */
+  public enum Shape {
+    FAN_OUT_FAN_IN {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.fanOutFanIn(SIZE);
+      }
+    },
+    DEEP_CHAIN {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.chain(SIZE);
+      }
+    },
+    SYNC_CHAIN {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.syncChain(SIZE);
+      }
+    },
+    DIAMONDS {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.diamonds(SIZE / 3);
+      }
+    },
+    EXAMPLE_HELLO_WORLD {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.helloWorld();
+      }
+    },
+    EXAMPLE_PREDECESSOR {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.predecessor();
+      }
+    },
+    EXAMPLE_FALLBACK {
+      @Override
+      Shapes.Workload create() {
+        return Shapes.fallback();
+      }
+    };
+
+    abstract Shapes.Workload create();
+  }
+
+  /**
+   * The executors to run the graphs on.
+   */
+  public enum ExecutorKind {
+    SAME_THREAD {
+      @Override
+      ExecutorService create() {
+        return MoreExecutors.sameThreadExecutor();
+      }
+    },
+    FIXED_POOL {
+      @Override
+      ExecutorService create() {
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      }
+    },
+    FORK_JOIN {
+      @Override
+      ExecutorService create() {
+        return new ForkJoinPool();
+      }
+    };
+
+    abstract ExecutorService create();
+  }
+
+  @Param
+  public Shape shape;
+
+  @Param
+  public ExecutorKind executorKind;
+
+  private Shapes.Workload workload;
+  private ExecutorService executor;
+  private CountingExecutor counting;
+
+  /**
+   * Counts executor submissions per thread.
+   */
+  @AuxCounters
+  @State(Scope.Thread)
+  public static class Submissions {
+    public long submissions;
+
+    // over the whole trial, for the average per run
+    private long totalSubmissions;
+    private long totalRuns;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      submissions = 0;
+    }
+
+    void record(long count) {
+      submissions += count;
+      totalSubmissions += count;
+      totalRuns++;
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+      System.out.printf("executor submissions per run: %.2f%n",
+                        (double) totalSubmissions / totalRuns);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    workload = shape.create();
+    executor = executorKind.create();
+    counting = new CountingExecutor(executor);
+
+    // compile the graph and make sure it works before measuring anything
+    workload.run(executor).get();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  @Benchmark
+  public Object run(Submissions submissions) throws ExecutionException, InterruptedException {
+    final long before = counting.submissions();
+    final Object result = workload.run(counting).get();
+
+    submissions.record(counting.submissions() - before);
+    return result;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    final Options options = new OptionsBuilder()
+        .include(GraphBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build();
+
+    new Runner(options).run();
+  }
+}
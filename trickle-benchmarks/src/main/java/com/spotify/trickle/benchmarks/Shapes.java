@@ -0,0 +1,242 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle.benchmarks;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.spotify.trickle.Func0;
+import com.spotify.trickle.Func1;
+import com.spotify.trickle.Func2;
+import com.spotify.trickle.Graph;
+import com.spotify.trickle.Input;
+import com.spotify.trickle.SyncFunc1;
+
+import java.util.concurrent.Executor;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Fallbacks.always;
+import static com.spotify.trickle.Trickle.call;
+
+/**
+ * Factory methods for the graphs used in benchmarks. Node functions do as little as possible,
+ * so that what's measured is the overhead of running the graph.
+ */
+final class Shapes {
+  static final Input<Integer> VALUE = Input.named("value");
+  static final Input<String> NAME = Input.named("name");
+  static final Input<String> GREETING = Input.named("greeting");
+
+  private static final Func1<Integer, Integer> INCREMENT = new Func1<Integer, Integer>() {
+    @Override
+    public ListenableFuture<Integer> run(Integer arg) {
+      return immediateFuture(arg + 1);
+    }
+  };
+
+  private static final SyncFunc1<Integer, Integer> SYNC_INCREMENT =
+      new SyncFunc1<Integer, Integer>() {
+        @Override
+        public Integer run(Integer arg) {
+          return arg + 1;
+        }
+      };
+
+  private static final Func2<Integer, Integer, Integer> MAX = new Func2<Integer, Integer, Integer>() {
+    @Override
+    public ListenableFuture<Integer> run(Integer arg1, Integer arg2) {
+      return immediateFuture(Math.max(arg1, arg2));
+    }
+  };
+
+  private static final Func0<Integer> CONSTANT = new Func0<Integer>() {
+    @Override
+    public ListenableFuture<Integer> run() {
+      return immediateFuture(1);
+    }
+  };
+
+  private Shapes() {
+    // prevent instantiation
+  }
+
+  /**
+   * Something that can be run, including binding its inputs.
+   */
+  interface Workload {
+    ListenableFuture<?> run(Executor executor);
+  }
+
+  /**
+   * One node consuming the input, {@code width} nodes consuming that node, and a final node that
+   * runs after all of them.
+   */
+  static Workload fanOutFanIn(int width) {
+    final Graph<Integer> source = call(INCREMENT).with(VALUE);
+    final Graph<?>[] branches = new Graph<?>[width];
+
+    for (int i = 0; i < width; i++) {
+      branches[i] = call(INCREMENT).with(source);
+    }
+
+    return bindValue(call(CONSTANT).after(branches));
+  }
+
+  /**
+   * A chain of {@code depth} nodes, each consuming the result of the previous one.
+   */
+  static Workload chain(int depth) {
+    Graph<Integer> graph = call(INCREMENT).with(VALUE);
+
+    for (int i = 1; i < depth; i++) {
+      graph = call(INCREMENT).with(graph);
+    }
+
+    return bindValue(graph);
+  }
+
+  /**
+   * Like {@link #chain(int)}, but with synchronous nodes, meaning that the chain can be fused into
+   * a single task.
+   */
+  static Workload syncChain(int depth) {
+    Graph<Integer> graph = call(SYNC_INCREMENT).with(VALUE);
+
+    for (int i = 1; i < depth; i++) {
+      graph = call(SYNC_INCREMENT).with(graph);
+    }
+
+    return bindValue(graph);
+  }
+
+  /**
+   * {@code count} diamonds stacked on top of each other: each diamond splits its input into two
+   * nodes, and joins them in a third.
+   */
+  static Workload diamonds(int count) {
+    Graph<Integer> graph = call(INCREMENT).with(VALUE);
+
+    for (int i = 0; i < count; i++) {
+      final Graph<Integer> left = call(INCREMENT).with(graph);
+      final Graph<Integer> right = call(INCREMENT).with(graph);
+      graph = call(MAX).with(left, right);
+    }
+
+    return bindValue(graph);
+  }
+
+  /**
+   * The 'hello world' graph from the examples: two transformations and a combining node.
+   */
+  static Workload helloWorld() {
+    final Func1<String, String> transformName = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String name) {
+        return immediateFuture("$$" + name);
+      }
+    };
+    final Func1<String, String> transformGreeting = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String greeting) {
+        return immediateFuture(greeting + "$$$");
+      }
+    };
+    final Func2<String, String, String> combine = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String greet, String name) {
+        return immediateFuture(greet + " " + name + "!");
+      }
+    };
+
+    final Graph<String> g1 = call(transformName).with(NAME).named("nameTransformer");
+    final Graph<String> g2 = call(transformGreeting).with(GREETING);
+    final Graph<String> g3 = call(combine).with(g1, g2).named("combiner");
+
+    return new Workload() {
+      @Override
+      public ListenableFuture<?> run(Executor executor) {
+        return g3.bind(NAME, "world").bind(GREETING, "Hello").run(executor);
+      }
+    };
+  }
+
+  /**
+   * The graph from the examples that combines two inputs after a predecessor node.
+   */
+  static Workload predecessor() {
+    final Func2<String, String, String> combineInputs = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + " " + arg2);
+      }
+    };
+    final Func1<String, Integer> length = new Func1<String, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(String arg) {
+        return immediateFuture(arg.length());
+      }
+    };
+    final Func0<Void> sideTrack = new Func0<Void>() {
+      @Override
+      public ListenableFuture<Void> run() {
+        return immediateFuture(null);
+      }
+    };
+
+    final Graph<String> n1 = call(combineInputs).with(NAME, GREETING);
+    final Graph<Void> n2 = call(sideTrack);
+    final Graph<Integer> graph = call(length).with(n1).after(n2);
+
+    return new Workload() {
+      @Override
+      public ListenableFuture<?> run(Executor executor) {
+        return graph.bind(GREETING, "hi").bind(NAME, "rouz").run(executor);
+      }
+    };
+  }
+
+  /**
+   * The graph from the examples where a node throws an exception and its fallback is used.
+   */
+  static Workload fallback() {
+    final Func1<String, String> node = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        if (arg.equals("igor")) {
+          throw new RuntimeException("oh noh!");
+        }
+
+        return immediateFuture("Hi " + arg);
+      }
+    };
+
+    final Graph<String> graph = call(node).with(NAME).fallback(always("Illegal name"));
+
+    return new Workload() {
+      @Override
+      public ListenableFuture<?> run(Executor executor) {
+        return graph.bind(NAME, "igor").run(executor);
+      }
+    };
+  }
+
+  private static Workload bindValue(final Graph<?> graph) {
+    return new Workload() {
+      @Override
+      public ListenableFuture<?> run(Executor executor) {
+        return graph.bind(VALUE, 0).run(executor);
+      }
+    };
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Code that looks up the values of a batch of keys at once, typically using a single call to
+ * some backend service. Like other functions, it should return quickly, doing any slow work
+ * asynchronously.
+ *
+ * @see Trickle#batched(BatchFunc)
+ */
+public interface BatchFunc<K, V> {
+  /**
+   * @param keys  the keys to look up; these are distinct and never empty
+   * @return a future for the values of the keys; keys that are missing from the map get null
+   * values
+   */
+  ListenableFuture<Map<K, V>> run(List<K> keys);
+}
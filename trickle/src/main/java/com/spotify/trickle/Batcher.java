@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static com.spotify.trickle.MoreFutures.copyOf;
+
+/**
+ * A function that collects the keys it is invoked with, from any number of concurrent runs, into
+ * batches that are looked up using a single call to a {@link BatchFunc}. A batch is sent once it
+ * holds the maximum number of keys, or once the maximum delay has passed since its first key
+ * arrived, whichever comes first. Invocations with a key that is already in the pending batch
+ * share its result. Each invocation gets a future of its own, so that cancelling one - for
+ * instance because its run was cancelled - doesn't affect the others.
+ *
+ * Batches that are sent because of the delay are timed by a timer thread, at a granularity of
+ * a millisecond. The timer thread is shared by all batchers, so it hands the batches off to a
+ * shared pool of threads, on which the batch function - and, for runs that execute nodes inline,
+ * the nodes that use the batch's values - are then invoked.
+ */
+final class Batcher<K, V> implements Func1<K, V> {
+  private final BatchFunc<K, V> func;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+
+  // guarded by this
+  @Nullable
+  private Map<K, SettableFuture<V>> pending;
+  @Nullable
+  private TimerWheel.Timeout flushTimeout;
+
+  Batcher(BatchFunc<K, V> func, int maxBatchSize, long maxDelay, TimeUnit unit) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive: %s", maxBatchSize);
+    checkArgument(maxDelay >= 0, "maxDelay must not be negative: %s", maxDelay);
+
+    this.func = checkNotNull(func, "func");
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = checkNotNull(unit, "unit").toNanos(maxDelay);
+  }
+
+  @Override
+  public ListenableFuture<V> run(K key) {
+    checkNotNull(key, "key");
+
+    final SettableFuture<V> future;
+    Map<K, SettableFuture<V>> full = null;
+
+    synchronized (this) {
+      if (pending == null) {
+        pending = new LinkedHashMap<K, SettableFuture<V>>();
+        flushTimeout = Timer.INSTANCE.schedule(new Flush(pending), maxDelayNanos,
+                                               TimeUnit.NANOSECONDS);
+      }
+
+      final SettableFuture<V> existing = pending.get(key);
+
+      if (existing != null) {
+        return copyOf(existing);
+      }
+
+      future = SettableFuture.create();
+      pending.put(key, future);
+
+      if (pending.size() >= maxBatchSize) {
+        full = pending;
+        pending = null;
+        flushTimeout.cancel();
+      }
+    }
+
+    if (full != null) {
+      send(full);
+    }
+
+    return copyOf(future);
+  }
+
+  private void send(final Map<K, SettableFuture<V>> batch) {
+    final ListenableFuture<Map<K, V>> result;
+
+    try {
+      result = checkNotNull(func.run(ImmutableList.copyOf(batch.keySet())),
+                            "batch function returned a null future");
+    } catch (Throwable t) {
+      failAll(batch, t);
+      return;
+    }
+
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        completed(batch, result);
+      }
+    }, sameThreadExecutor());
+  }
+
+  private void completed(Map<K, SettableFuture<V>> batch, ListenableFuture<Map<K, V>> result) {
+    final Map<K, V> values;
+
+    try {
+      values = getUninterruptibly(result);
+    } catch (ExecutionException e) {
+      failAll(batch, e.getCause());
+      return;
+    } catch (CancellationException e) {
+      failAll(batch, e);
+      return;
+    }
+
+    for (Map.Entry<K, SettableFuture<V>> entry : batch.entrySet()) {
+      entry.getValue().set(values.get(entry.getKey()));
+    }
+  }
+
+  private void failAll(Map<K, SettableFuture<V>> batch, Throwable t) {
+    for (SettableFuture<V> future : batch.values()) {
+      future.setException(t);
+    }
+  }
+
+  /**
+   * Sends a batch once its delay has passed, unless it has already been sent because it filled
+   * up.
+   */
+  private final class Flush implements Runnable {
+    private final Map<K, SettableFuture<V>> batch;
+
+    private Flush(Map<K, SettableFuture<V>> batch) {
+      this.batch = batch;
+    }
+
+    @Override
+    public void run() {
+      synchronized (Batcher.this) {
+        if (pending != batch) {
+          return;
+        }
+
+        pending = null;
+      }
+
+      final Runnable sendBatch = new Runnable() {
+        @Override
+        public void run() {
+          send(batch);
+        }
+      };
+
+      try {
+        Senders.EXECUTOR.execute(sendBatch);
+      } catch (RuntimeException e) {
+        // the batch must be sent, even if the pool refuses to do it
+        sendBatch.run();
+      }
+    }
+  }
+
+  private static final class Timer {
+    private static final TimerWheel INSTANCE =
+        new TimerWheel(1, TimeUnit.MILLISECONDS, 256, "trickle-batcher");
+  }
+
+  private static final class Senders {
+    private static final Executor EXECUTOR = DaemonExecutors.newBoundedPool("trickle-batch-%d");
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+
+/**
+ * An immutable collection of values bound to {@link Input}s. Use a {@link Builder} to collect
+ * all the values for a graph run in one go and apply them using
+ * {@link Graph#bindAll(Bindings)}; this is cheaper than chaining many calls to
+ * {@link Graph#bind(Input, Object)} for graphs with many inputs.
+ *
+ * Values are stored in arrays, indexed by the order in which they were bound.
+ */
+public final class Bindings {
+  private static final Bindings EMPTY = new Bindings(new Input<?>[0], new Object[0]);
+
+  private final Input<?>[] inputs;
+  private final Object[] values;
+
+  private Bindings(Input<?>[] inputs, Object[] values) {
+    this.inputs = inputs;
+    this.values = values;
+  }
+
+  /**
+   * @return an empty set of bindings
+   */
+  public static Bindings of() {
+    return EMPTY;
+  }
+
+  /**
+   * @return a builder for bindings
+   */
+  public static Builder builder() {
+    return new Builder(8);
+  }
+
+  /**
+   * @param expectedSize the number of inputs that are going to be bound
+   * @return a builder for bindings, pre-sized to hold the expected number of inputs
+   */
+  public static Builder builder(int expectedSize) {
+    checkArgument(expectedSize >= 0, "expectedSize must be non-negative: %s", expectedSize);
+    return new Builder(expectedSize);
+  }
+
+  /**
+   * @return the number of bound inputs
+   */
+  public int size() {
+    return inputs.length;
+  }
+
+  /**
+   * @return true if there is a value bound to the supplied input
+   */
+  public boolean contains(Input<?> input) {
+    return indexOf(inputs, inputs.length, checkNotNull(input, "input")) >= 0;
+  }
+
+  Input<?> input(int index) {
+    return inputs[index];
+  }
+
+  Object value(int index) {
+    return values[index];
+  }
+
+  /**
+   * Returns a new instance that contains the bindings of this instance and the supplied one.
+   *
+   * @throws IllegalStateException if the same input is bound in both instances
+   */
+  Bindings withAll(Bindings other) {
+    checkNotNull(other, "other");
+
+    if (other.size() == 0) {
+      return this;
+    }
+    if (size() == 0) {
+      return other;
+    }
+
+    Set<Input<?>> duplicates = null;
+    for (Input<?> input : other.inputs) {
+      if (indexOf(inputs, inputs.length, input) >= 0) {
+        if (duplicates == null) {
+          duplicates = newLinkedHashSet();
+        }
+        duplicates.add(input);
+      }
+    }
+
+    checkState(duplicates == null, "Duplicate binding for inputs: %s", duplicates);
+
+    final Input<?>[] newInputs = Arrays.copyOf(inputs, inputs.length + other.inputs.length);
+    final Object[] newValues = Arrays.copyOf(values, values.length + other.values.length);
+    System.arraycopy(other.inputs, 0, newInputs, inputs.length, other.inputs.length);
+    System.arraycopy(other.values, 0, newValues, values.length, other.values.length);
+
+    return new Bindings(newInputs, newValues);
+  }
+
+  /**
+   * Returns a new instance that also contains the supplied binding.
+   *
+   * @throws IllegalStateException if the input is already bound
+   */
+  Bindings with(Input<?> input, Object value) {
+    checkNotNull(input, "input");
+    checkNotNull(value, "value");
+    checkState(indexOf(inputs, inputs.length, input) < 0, "Duplicate binding for input: " + input);
+
+    final Input<?>[] newInputs = Arrays.copyOf(inputs, inputs.length + 1);
+    final Object[] newValues = Arrays.copyOf(values, values.length + 1);
+    newInputs[inputs.length] = input;
+    newValues[values.length] = value;
+
+    return new Bindings(newInputs, newValues);
+  }
+
+  private static int indexOf(Input<?>[] inputs, int size, Input<?> input) {
+    // inputs are nearly always constants, so checking identity first saves most equals() calls.
+    // A linear scan is faster than hashing for the number of inputs graphs tend to have.
+    for (int i = 0; i < size; i++) {
+      if (inputs[i] == input) {
+        return i;
+      }
+    }
+    for (int i = 0; i < size; i++) {
+      if (inputs[i].equals(input)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder("Bindings{");
+    for (int i = 0; i < inputs.length; i++) {
+      if (i > 0) {
+        result.append(", ");
+      }
+      result.append(inputs[i].getName()).append('=').append(values[i]);
+    }
+    return result.append('}').toString();
+  }
+
+  /**
+   * Collects values for inputs. Builders are not thread safe.
+   */
+  public static final class Builder {
+    private Input<?>[] inputs;
+    private Object[] values;
+    private int size;
+    private boolean shared;
+
+    private Builder(int expectedSize) {
+      inputs = new Input<?>[expectedSize];
+      values = new Object[expectedSize];
+    }
+
+    /**
+     * Bind an input parameter to a concrete value.
+     *
+     * @throws IllegalStateException if the input has already been bound
+     */
+    public <P> Builder bind(Input<P> input, P value) {
+      return add(input, value);
+    }
+
+    /**
+     * Bind an input parameter to a future value.
+     *
+     * @throws IllegalStateException if the input has already been bound
+     */
+    public <P> Builder bind(Input<P> input, ListenableFuture<P> inputFuture) {
+      return add(input, inputFuture);
+    }
+
+    private Builder add(Input<?> input, Object value) {
+      checkNotNull(input, "input");
+      checkNotNull(value, "value");
+      checkState(indexOf(inputs, size, input) < 0, "Duplicate binding for input: " + input);
+
+      if (shared || size == inputs.length) {
+        // the arrays have been handed over to a built instance, or are full
+        final int capacity = Math.max(size + 1, size + (size >> 1));
+        inputs = Arrays.copyOf(inputs, capacity);
+        values = Arrays.copyOf(values, capacity);
+        shared = false;
+      }
+
+      inputs[size] = input;
+      values[size] = value;
+      size++;
+
+      return this;
+    }
+
+    /**
+     * @return an immutable instance holding the values bound so far
+     */
+    public Bindings build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+
+      if (size == inputs.length) {
+        // the builder was correctly pre-sized, so no need to copy
+        shared = true;
+        return new Bindings(inputs, values);
+      }
+
+      return new Bindings(Arrays.copyOf(inputs, size), Arrays.copyOf(values, size));
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Describes how the results of a node are cached; see {@link ConfigurableGraph#cached(CacheSpec)}.
+ * Instances are immutable; start with {@link #maximumSize(long)} and add expiry and refresh
+ * times as needed.
+ */
+public final class CacheSpec {
+  static final long NEVER = -1;
+
+  private final long maximumSize;
+  private final long expireAfterWriteNanos;
+  private final long refreshAfterWriteNanos;
+
+  private CacheSpec(long maximumSize, long expireAfterWriteNanos, long refreshAfterWriteNanos) {
+    this.maximumSize = maximumSize;
+    this.expireAfterWriteNanos = expireAfterWriteNanos;
+    this.refreshAfterWriteNanos = refreshAfterWriteNanos;
+  }
+
+  /**
+   * @return a spec for a cache holding at most the given number of results, which never expire
+   */
+  public static CacheSpec maximumSize(long maximumSize) {
+    checkArgument(maximumSize >= 0, "maximumSize must not be negative: %s", maximumSize);
+    return new CacheSpec(maximumSize, NEVER, NEVER);
+  }
+
+  /**
+   * @return a spec that also evicts results once the given time has passed since they were
+   * computed
+   */
+  public CacheSpec expireAfterWrite(long duration, TimeUnit unit) {
+    checkArgument(duration > 0, "duration must be positive: %s", duration);
+    return new CacheSpec(maximumSize, checkNotNull(unit, "unit").toNanos(duration),
+                         refreshAfterWriteNanos);
+  }
+
+  /**
+   * @return a spec that also recomputes results once the given time has passed since they were
+   * computed. The first run that finds a stale result recomputes it, by invoking the node as if
+   * the result wasn't cached; other runs use the stale result until the new one is in.
+   */
+  public CacheSpec refreshAfterWrite(long duration, TimeUnit unit) {
+    checkArgument(duration > 0, "duration must be positive: %s", duration);
+    return new CacheSpec(maximumSize, expireAfterWriteNanos,
+                         checkNotNull(unit, "unit").toNanos(duration));
+  }
+
+  long maximumSize() {
+    return maximumSize;
+  }
+
+  long expireAfterWriteNanos() {
+    return expireAfterWriteNanos;
+  }
+
+  long refreshAfterWriteNanos() {
+    return refreshAfterWriteNanos;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheSpec{maximumSize=" + maximumSize
+           + ", expireAfterWriteNanos=" + expireAfterWriteNanos
+           + ", refreshAfterWriteNanos=" + refreshAfterWriteNanos + "}";
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.spotify.trickle.MoreFutures.copyOf;
+import static com.spotify.trickle.MoreFutures.transfer;
+
+/**
+ * A node that coalesces concurrent invocations with equal arguments into a single invocation of
+ * the node it wraps: while an invocation is in flight, later ones with the same argument values
+ * wait for its result instead of invoking the function again. Once the result is in, the next
+ * invocation calls the function anew.
+ *
+ * Each invocation gets a future of its own, so that cancelling one - for instance because its
+ * run was cancelled - doesn't affect the others.
+ */
+final class CoalescingNode<N> extends TrickleNode<N> {
+  private final TrickleNode<N> delegate;
+  private final ConcurrentMap<List<Object>, SettableFuture<N>> inFlight =
+      new ConcurrentHashMap<List<Object>, SettableFuture<N>>();
+
+  CoalescingNode(TrickleNode<N> delegate) {
+    this.delegate = checkNotNull(delegate, "delegate");
+  }
+
+  @Override
+  public ListenableFuture<N> run(List<Object> values) {
+    // the argument list is reused by the caller, so the key needs a copy of its own
+    final List<Object> key = new ArrayList<Object>(values);
+    final SettableFuture<N> shared = SettableFuture.create();
+    final SettableFuture<N> existing = inFlight.putIfAbsent(key, shared);
+
+    if (existing != null) {
+      return copyOf(existing);
+    }
+
+    final ListenableFuture<N> result;
+
+    try {
+      result = checkNotNull(delegate.run(values), "node returned a null future");
+    } catch (RuntimeException e) {
+      inFlight.remove(key, shared);
+      shared.setException(e);
+      throw e;
+    }
+
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        // remove the call before completing it, so that invocations that see the result can
+        // start a new one
+        inFlight.remove(key, shared);
+        transfer(result, shared);
+      }
+    }, sameThreadExecutor());
+
+    return copyOf(shared);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits the number of concurrent invocations of a node, across all runs of all graphs that the
+ * node is part of. Invocations beyond the limit wait in a bounded queue, without blocking any
+ * thread, and are resumed in order as permits are released; once the queue is full, further
+ * invocations are rejected. A permit is held from when the node is invoked until the future it
+ * returns completes.
+ *
+ * The limit is either fixed, or adapted to the latency of the node by a {@link GradientLimit}, in
+ * which case the configured limit is the upper bound.
+ */
+final class ConcurrencyLimiter {
+  enum Result {
+    ACQUIRED, QUEUED, REJECTED
+  }
+
+  private final int maxQueued;
+  @Nullable
+  private final GradientLimit gradient;
+  private final Queue<NodeFuture<?>> waiting = new ArrayDeque<NodeFuture<?>>();
+
+  // nodes that have been handed a permit, and the number of them yet to be resumed
+  private final Queue<NodeFuture<?>> resumable = new ConcurrentLinkedQueue<NodeFuture<?>>();
+  private final AtomicInteger resuming = new AtomicInteger();
+
+  private int limit;
+  private int running;
+
+  private ConcurrencyLimiter(int maxConcurrent, int maxQueued, @Nullable GradientLimit gradient) {
+    checkArgument(maxConcurrent > 0, "maxConcurrent must be positive: %s", maxConcurrent);
+    checkArgument(maxQueued >= 0, "maxQueued must not be negative: %s", maxQueued);
+
+    this.limit = gradient != null ? gradient.limit() : maxConcurrent;
+    this.maxQueued = maxQueued;
+    this.gradient = gradient;
+  }
+
+  static ConcurrencyLimiter fixed(int maxConcurrent, int maxQueued) {
+    return new ConcurrencyLimiter(maxConcurrent, maxQueued, null);
+  }
+
+  static ConcurrencyLimiter adaptive(int maxConcurrent, int maxQueued) {
+    return new ConcurrencyLimiter(maxConcurrent, maxQueued, new GradientLimit(maxConcurrent));
+  }
+
+  /**
+   * @return true if the limit adapts to latency, meaning that releases should come with one
+   */
+  boolean isAdaptive() {
+    return gradient != null;
+  }
+
+  /**
+   * Tries to acquire a permit for invoking a node. If none is available but there is room in the
+   * queue, the node is queued, and resumed once a permit has been handed to it.
+   */
+  synchronized Result acquire(NodeFuture<?> node) {
+    checkNotNull(node, "node");
+
+    if (running < limit) {
+      running++;
+      return Result.ACQUIRED;
+    }
+
+    if (waiting.size() < maxQueued) {
+      waiting.add(node);
+      return Result.QUEUED;
+    }
+
+    return Result.REJECTED;
+  }
+
+  /**
+   * Releases a permit, handing it directly to the oldest queued node, if any. If the limit has
+   * grown, more queued nodes may be resumed; if it has shrunk, none are until enough permits
+   * have been released.
+   *
+   * A resumed node that completes right away releases its permit while being resumed, which
+   * resumes the next node, and so on. To keep the stack depth constant however many nodes are
+   * queued, nodes are resumed by a loop that only one thread runs at a time, in the same way as
+   * the work-list of {@link TraverseState}; a release that happens while the loop is running
+   * leaves the nodes it hands permits to for the loop to resume.
+   *
+   * @param latencyNanos  the latency of the invocation that held the permit, or -1 if it is
+   *                      unknown or the invocation never happened
+   */
+  void release(long latencyNanos) {
+    int resumed = 0;
+
+    synchronized (this) {
+      if (gradient != null && latencyNanos >= 0) {
+        limit = gradient.update(latencyNanos, running);
+      }
+
+      running--;
+
+      while (running < limit && !waiting.isEmpty()) {
+        running++;
+        resumable.add(waiting.poll());
+        resumed++;
+      }
+    }
+
+    if (resumed > 0 && resuming.getAndAdd(resumed) == 0) {
+      resumeAll();
+    }
+  }
+
+  /**
+   * Resumes nodes that have been handed a permit until there are none left. Must only be called
+   * by the thread that incremented the resuming counter from 0.
+   */
+  private void resumeAll() {
+    do {
+      final NodeFuture<?> node = resumable.poll();
+
+      // the poll can come up empty, since nodes added by other threads may have been resumed
+      // before they were counted
+      if (node != null) {
+        node.resume();
+      }
+    } while (resuming.decrementAndGet() != 0);
+  }
+
+  synchronized int limit() {
+    return limit;
+  }
+
+  int maxQueued() {
+    return maxQueued;
+  }
+
+  synchronized int running() {
+    return running;
+  }
+
+  synchronized int queued() {
+    return waiting.size();
+  }
+}
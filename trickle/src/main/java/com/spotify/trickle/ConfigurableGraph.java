@@ -18,6 +18,9 @@ package com.spotify.trickle;
 
 import com.google.common.util.concurrent.AsyncFunction;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Defines operations available on an intermediate node builder when constructing a graph.
  */
@@ -28,6 +31,71 @@ public abstract class ConfigurableGraph<R> extends Graph<R> {
 
   public abstract ConfigurableGraph<R> after(Graph<?>... predecessors);
 
+  /**
+   * Fail the node with a {@link java.util.concurrent.TimeoutException} if the future returned by
+   * its function doesn't complete within the given time after the node is invoked. The exception
+   * is passed to the fallback, if there is one, and the future is cancelled. Timeouts are
+   * checked with a granularity of about 10 milliseconds. They only apply to the node's own
+   * future, not to that of its fallback, and not to synchronous nodes.
+   */
+  public abstract ConfigurableGraph<R> timeout(long timeout, TimeUnit unit);
+
+  /**
+   * Invoke the node on the given executor rather than on the one the graph is run with. This
+   * makes it possible to keep nodes that block or use a lot of CPU on pools of their own, so
+   * that they can't starve other nodes; cheap nodes can be run inline using
+   * {@link com.google.common.util.concurrent.MoreExecutors#sameThreadExecutor()}.
+   */
+  public abstract ConfigurableGraph<R> executeOn(Executor executor);
+
+  /**
+   * Limit the number of concurrent invocations of the node, across all runs of all graphs that
+   * it is part of. An invocation lasts until the future returned by the node completes.
+   * Invocations beyond the limit are queued, without blocking any thread, until an earlier
+   * invocation completes; once {@code maxQueued} invocations are waiting, further ones fail
+   * with a {@link java.util.concurrent.RejectedExecutionException}, which is passed to the
+   * fallback, if there is one. Use a {@code maxQueued} of 0 to reject invocations right away.
+   *
+   * The limit is created by this call, so it is shared by the graphs built from its result, but
+   * not by nodes that are configured separately with the same function.
+   */
+  public abstract ConfigurableGraph<R> maxConcurrency(int maxConcurrent, int maxQueued);
+
+  /**
+   * Limit the number of concurrent invocations of the node like
+   * {@link #maxConcurrency(int, int)}, but adapt the limit to the latency of the node: when the
+   * latency rises, meaning that whatever the node calls is becoming overloaded, the limit is
+   * lowered, so that fewer invocations are let through and more wait or are rejected; when
+   * latency is stable, the limit grows. The limit starts out at 20, or at {@code maxConcurrent}
+   * if that is lower, and never exceeds {@code maxConcurrent}.
+   */
+  public abstract ConfigurableGraph<R> adaptiveConcurrency(int maxConcurrent, int maxQueued);
+
+  /**
+   * Coalesce concurrent invocations of the node that have equal arguments: while the function is
+   * running for some argument values, in any run of any graph that the node is part of, other
+   * invocations with equal values wait for that result instead of calling the function again.
+   * Argument values must implement {@link Object#equals(Object)} and {@link Object#hashCode()}
+   * accordingly. Results are not kept once they are in; the next invocation calls the function.
+   *
+   * Like a concurrency limit, coalescing is set up by this call, and shared by the graphs built
+   * from its result.
+   */
+  public abstract ConfigurableGraph<R> coalesce();
+
+  /**
+   * Cache the results of the node, keyed by its argument values, across all runs of all graphs
+   * that the node is part of. When a node becomes ready to run and its result is in the cache,
+   * the node completes with the cached result right away, without its function being called or
+   * being passed to an executor. Argument values must implement {@link Object#equals(Object)}
+   * and {@link Object#hashCode()} accordingly. Results of fallbacks, and null results, are not
+   * cached.
+   *
+   * The cache is created by this call, and shared by the graphs built from its result; see
+   * {@link #cacheStats()} for its statistics.
+   */
+  public abstract ConfigurableGraph<R> cached(CacheSpec spec);
+
   // prevent construction from outside of package
   ConfigurableGraph() {}
 }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors for work that Trickle hands off from its timer threads, which are shared by all
+ * runs and must not be held up by nodes.
+ */
+final class DaemonExecutors {
+  private DaemonExecutors() {
+    // prevent instantiation
+  }
+
+  /**
+   * Creates a pool of daemon threads, one per processor but at least two. When all threads are
+   * busy, tasks are queued rather than starting more threads, so that a burst of tasks - such as
+   * many timeouts expiring at once - can't create a burst of threads. Idle threads are stopped.
+   */
+  static Executor newBoundedPool(String nameFormat) {
+    final int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+        threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat(nameFormat)
+            .setDaemon(true)
+            .build());
+
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A point in time by which a run of a graph should be done, as measured by
+ * {@link System#nanoTime()}. Instances are immutable.
+ *
+ * @see Graph#run(java.util.concurrent.Executor, Deadline)
+ */
+public final class Deadline {
+  private final long deadlineNanos;
+
+  private Deadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return a deadline the given amount of time from now
+   */
+  public static Deadline after(long duration, TimeUnit unit) {
+    return new Deadline(System.nanoTime() + checkNotNull(unit, "unit").toNanos(duration));
+  }
+
+  /**
+   * @return the time left until the deadline, in nanoseconds; negative if it has passed
+   */
+  public long remainingNanos() {
+    return deadlineNanos - System.nanoTime();
+  }
+
+  public boolean isExpired() {
+    return remainingNanos() <= 0;
+  }
+
+  @Override
+  public String toString() {
+    return "Deadline{remaining=" + TimeUnit.NANOSECONDS.toMillis(remainingNanos()) + "ms}";
+  }
+}
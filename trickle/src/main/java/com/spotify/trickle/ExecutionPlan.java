@@ -0,0 +1,459 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.spotify.trickle.TrickleNode.SyncTrickleNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newIdentityHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+
+/**
+ * An immutable, compiled representation of a graph. Nodes are stored in topological order, and
+ * each node refers to its arguments and predecessors using dense integer slot indices, meaning
+ * that running the plan amounts to filling in an array of slots.
+ *
+ * Slots {@code [0, inputCount)} hold the values bound to inputs, and slots
+ * {@code [inputCount, inputCount + nodeCount)} hold the results of the nodes. The root node of
+ * the graph is always the last node.
+ *
+ * @param <R>  The return type of the graph
+ */
+final class ExecutionPlan<R> {
+  private final ImmutableList<GraphBuilder<?>> nodes;
+  private final ImmutableList<Input<?>> inputs;
+  private final ImmutableMap<Input<?>, Integer> inputIndices;
+  private final Object[] boundValues;
+  private final int[][] arguments;
+  private final int[][] predecessors;
+  private final int[][] consumerNodes;
+  private final int[][] consumerArguments;
+  private final boolean[] fused;
+  private final boolean[] fallbacks;
+  private final AtomicLongArray expectedCosts;
+
+  private ExecutionPlan(ImmutableList<GraphBuilder<?>> nodes,
+                        ImmutableList<Input<?>> inputs,
+                        ImmutableMap<Input<?>, Integer> inputIndices,
+                        Object[] boundValues,
+                        int[][] arguments,
+                        int[][] predecessors) {
+    this.nodes = nodes;
+    this.inputs = inputs;
+    this.inputIndices = inputIndices;
+    this.boundValues = boundValues;
+    this.arguments = arguments;
+    this.predecessors = predecessors;
+
+    // invert the dependencies, so that each slot knows which nodes consume it
+    final int slotCount = inputs.size() + nodes.size();
+    final int[] consumerCounts = new int[slotCount];
+    for (int i = 0; i < nodes.size(); i++) {
+      for (int slot : arguments[i]) {
+        consumerCounts[slot]++;
+      }
+      for (int slot : predecessors[i]) {
+        consumerCounts[slot]++;
+      }
+    }
+
+    this.consumerNodes = new int[slotCount][];
+    this.consumerArguments = new int[slotCount][];
+    for (int slot = 0; slot < slotCount; slot++) {
+      consumerNodes[slot] = new int[consumerCounts[slot]];
+      consumerArguments[slot] = new int[consumerCounts[slot]];
+      consumerCounts[slot] = 0;
+    }
+
+    for (int i = 0; i < nodes.size(); i++) {
+      for (int j = 0; j < arguments[i].length; j++) {
+        addConsumer(arguments[i][j], i, j, consumerCounts);
+      }
+      for (int slot : predecessors[i]) {
+        addConsumer(slot, i, -1, consumerCounts);
+      }
+    }
+
+    this.expectedCosts = new AtomicLongArray(nodes.size());
+    this.fused = new boolean[nodes.size()];
+    this.fallbacks = new boolean[nodes.size()];
+    for (int i = 0; i < nodes.size(); i++) {
+      fused[i] = isFusable(i);
+      fallbacks[i] = nodes.get(i).getFallback().isPresent();
+    }
+  }
+
+  /**
+   * A node is fused with its producer if it forms a link in a linear chain of synchronous nodes:
+   * it depends on nothing but the producer, which has no other consumers, and it is to be run on
+   * the same executor as the producer. Such a node can be invoked directly by the producer's task
+   * once the producer completes, saving a trip through the work-list and the executor. Nodes with
+   * a result cache are never fused, since they are looked up in the cache when dispatched; nor
+   * are their consumers, since a cache hit completes the producer on the dispatching thread,
+   * rather than on the executor the consumer is to be run on.
+   */
+  private boolean isFusable(int node) {
+    if (!(nodes.get(node).getNode() instanceof SyncTrickleNode)
+        || nodes.get(node).getCache().isPresent()
+        || dependencyCount(node) != 1) {
+      return false;
+    }
+
+    final int producerSlot =
+        arguments[node].length == 1 ? arguments[node][0] : predecessors[node][0];
+    final int producer = producerSlot - inputs.size();
+
+    return producer >= 0
+           && consumerNodes[producerSlot].length == 1
+           && nodes.get(producer).getNode() instanceof SyncTrickleNode
+           && !nodes.get(producer).getCache().isPresent()
+           && nodes.get(producer).getExecutor().equals(nodes.get(node).getExecutor());
+  }
+
+  private void addConsumer(int slot, int node, int argument, int[] consumerCounts) {
+    final int position = consumerCounts[slot]++;
+    consumerNodes[slot][position] = node;
+    consumerArguments[slot][position] = argument;
+  }
+
+  /**
+   * Compiles the graph with the supplied root node into an execution plan.
+   *
+   * @throws IllegalStateException if subgraphs contain conflicting bindings for the same input
+   */
+  static <R> ExecutionPlan<R> compile(GraphBuilder<R> root) {
+    checkNotNull(root, "root");
+
+    return new Compiler().compile(root);
+  }
+
+  /**
+   * Runs the plan using the supplied bindings, in addition to any bindings made in subgraphs.
+   *
+   * @param listener  notified about the run, if not null
+   * @param deadline  the deadline of the run, if not null
+   * @param failFast  whether to cancel the run once the root node has failed
+   * @param scope  the scope to share node results in, if not null
+   * @throws IllegalStateException if an input is bound both in a subgraph and in the bindings
+   * @throws IllegalArgumentException if some input used by a node isn't bound to a value
+   */
+  ListenableFuture<R> run(Bindings bindings,
+                          Executor executor,
+                          @Nullable GraphListener listener,
+                          @Nullable Deadline deadline,
+                          boolean failFast,
+                          @Nullable RunScope scope) {
+    checkNotNull(bindings, "bindings");
+    checkNotNull(executor, "executor");
+
+    final Object[] values = bindValues(bindings);
+    final NodeListener nodeListener = listener == null ? null : startListening(listener);
+
+    return new TraverseState(this, executor, nodeListener, deadline, failFast, scope)
+        .start(values);
+  }
+
+  ListenableFuture<R> run(Bindings bindings, Executor executor) {
+    return run(bindings, executor, null, null, false, null);
+  }
+
+  @Nullable
+  private NodeListener startListening(GraphListener listener) {
+    try {
+      return listener.runStarted(nodes.get(nodes.size() - 1), System.nanoTime());
+    } catch (RuntimeException e) {
+      // a misbehaving listener must not break the run
+      return null;
+    }
+  }
+
+  private Object[] bindValues(Bindings bindings) {
+    final Object[] values = boundValues.clone();
+    Set<Input<?>> duplicates = null;
+
+    for (int i = 0; i < bindings.size(); i++) {
+      final Integer index = inputIndices.get(bindings.input(i));
+
+      if (index == null) {
+        // not used by any node in this graph
+        continue;
+      }
+
+      if (values[index] != null) {
+        if (duplicates == null) {
+          duplicates = newLinkedHashSet();
+        }
+        duplicates.add(bindings.input(i));
+      }
+
+      values[index] = bindings.value(i);
+    }
+
+    checkState(duplicates == null, "Duplicate binding for inputs: %s", duplicates);
+
+    for (int i = 0; i < values.length; i++) {
+      checkArgument(values[i] != null, "Input not bound to a value for input %s", inputs.get(i));
+    }
+
+    return values;
+  }
+
+  int inputCount() {
+    return inputs.size();
+  }
+
+  int nodeCount() {
+    return nodes.size();
+  }
+
+  Input<?> input(int index) {
+    return inputs.get(index);
+  }
+
+  GraphBuilder<?> node(int index) {
+    return nodes.get(index);
+  }
+
+  int[] argumentSlots(int node) {
+    return arguments[node].clone();
+  }
+
+  int[] predecessorSlots(int node) {
+    return predecessors[node].clone();
+  }
+
+  int dependencyCount(int node) {
+    return arguments[node].length + predecessors[node].length;
+  }
+
+  /**
+   * @return true if the node should be invoked directly by its producer's task
+   */
+  boolean isFused(int node) {
+    return fused[node];
+  }
+
+  /**
+   * @return true if the node has a fallback that should handle failures; failures of other nodes
+   * are simply propagated to their consumers
+   */
+  boolean hasFallback(int node) {
+    return fallbacks[node];
+  }
+
+  /**
+   * @return the expected execution time of the node in nanoseconds, or 0 if unknown
+   */
+  long expectedCost(int node) {
+    return expectedCosts.get(node);
+  }
+
+  /**
+   * Updates the expected execution time of a node with an observed one. The expected time is an
+   * exponentially weighted moving average, giving each new observation a weight of 1/8. Updates
+   * from concurrent runs may occasionally be lost, which doesn't matter for an estimate.
+   */
+  void recordCost(int node, long nanos) {
+    final long expected = expectedCosts.get(node);
+
+    expectedCosts.set(node, expected == 0 ? Math.max(1, nanos) : expected + (nanos - expected) / 8);
+  }
+
+  /**
+   * Lowers the expected execution time of a node that was skipped because it was expected to
+   * take longer than the time left. Skipped nodes record no execution time, so without this, a
+   * single slow invocation would keep a node from ever being invoked again under the same
+   * deadline. Each skip takes off 1/8 of the estimate, so the node is eventually tried again,
+   * and the estimate follows the node's actual execution time from there.
+   */
+  void recordSkipped(int node) {
+    final long expected = expectedCosts.get(node);
+
+    expectedCosts.set(node, expected - expected / 8);
+  }
+
+  /**
+   * Returns the indices of the nodes that consume the value of a slot. For performance reasons,
+   * the returned array is not a copy, and must not be modified.
+   */
+  int[] consumerNodes(int slot) {
+    return consumerNodes[slot];
+  }
+
+  /**
+   * Returns the argument index, or -1 for predecessors, for each node returned by
+   * {@link #consumerNodes(int)}. The returned array must not be modified.
+   */
+  int[] consumerArguments(int slot) {
+    return consumerArguments[slot];
+  }
+
+  /**
+   * Single-use helper that does the work of discovering the nodes and inputs of a graph.
+   */
+  private static final class Compiler {
+    private final List<GraphBuilder<?>> nodes = newArrayList();
+    private final Map<GraphBuilder<?>, Integer> nodeIndices = newIdentityHashMap();
+    private final List<Input<?>> inputs = newArrayList();
+    private final Map<Input<?>, Integer> inputIndices = newHashMap();
+    private final Map<Input<?>, Object> boundValues = newHashMap();
+    private final Set<Graph<?>> visitedBindings = Sets.newIdentityHashSet();
+    private final Set<Input<?>> duplicates = newLinkedHashSet();
+
+    <R> ExecutionPlan<R> compile(GraphBuilder<R> root) {
+      visit(root);
+
+      checkState(duplicates.isEmpty(), "Duplicate binding for inputs: %s", duplicates);
+
+      final int inputCount = inputs.size();
+      final int[][] arguments = new int[nodes.size()][];
+      final int[][] predecessors = new int[nodes.size()][];
+
+      for (int i = 0; i < nodes.size(); i++) {
+        final GraphBuilder<?> node = nodes.get(i);
+
+        arguments[i] = new int[node.getInputs().size()];
+        for (int j = 0; j < arguments[i].length; j++) {
+          final Dep<?> dep = node.getInputs().get(j);
+
+          if (dep instanceof GraphDep) {
+            arguments[i][j] = inputCount + nodeIndices.get(unwrap(((GraphDep<?>) dep).getGraph()));
+          } else {
+            arguments[i][j] = inputIndices.get(((BindingDep<?>) dep).getInput());
+          }
+        }
+
+        predecessors[i] = new int[node.getPredecessors().size()];
+        for (int j = 0; j < predecessors[i].length; j++) {
+          predecessors[i][j] = inputCount + nodeIndices.get(unwrap(node.getPredecessors().get(j)));
+        }
+      }
+
+      final Object[] values = new Object[inputCount];
+      for (Map.Entry<Input<?>, Object> entry : boundValues.entrySet()) {
+        values[inputIndices.get(entry.getKey())] = entry.getValue();
+      }
+
+      return new ExecutionPlan<R>(
+          ImmutableList.copyOf(nodes),
+          ImmutableList.copyOf(inputs),
+          ImmutableMap.copyOf(inputIndices),
+          values,
+          arguments,
+          predecessors);
+    }
+
+    /**
+     * Does a depth-first traversal of the graph, adding each node after all the nodes it depends
+     * on. An explicit stack is used rather than recursion, so that arbitrarily deep graphs can be
+     * handled.
+     */
+    private void visit(Graph<?> root) {
+      final Deque<Graph<?>> stack = new ArrayDeque<Graph<?>>();
+      final Set<GraphBuilder<?>> expanded = Sets.newIdentityHashSet();
+
+      stack.push(root);
+
+      while (!stack.isEmpty()) {
+        final Graph<?> graph = stack.peek();
+
+        if (graph instanceof PreparedGraph && visitedBindings.add(graph)) {
+          addBindings(((PreparedGraph<?>) graph).getInputBindings());
+        }
+
+        final GraphBuilder<?> node = unwrap(graph);
+
+        if (nodeIndices.containsKey(node)) {
+          stack.pop();
+        } else if (expanded.add(node)) {
+          // first time we see this node; make sure everything it depends on gets added first.
+          // Pushing in reverse order means dependencies are handled in declaration order.
+          for (Dep<?> dep : node.getInputs()) {
+            if (dep instanceof BindingDep) {
+              addInput(((BindingDep<?>) dep).getInput());
+            } else if (!(dep instanceof GraphDep)) {
+              throw new IllegalStateException("PROGRAMMER ERROR: illegal dependency: " + dep);
+            }
+          }
+
+          for (Graph<?> predecessor : node.getPredecessors().reverse()) {
+            stack.push(predecessor);
+          }
+
+          for (Dep<?> dep : node.getInputs().reverse()) {
+            if (dep instanceof GraphDep) {
+              stack.push(((GraphDep<?>) dep).getGraph());
+            }
+          }
+        } else {
+          // all dependencies have been added
+          stack.pop();
+          nodeIndices.put(node, nodes.size());
+          nodes.add(node);
+        }
+      }
+    }
+
+    private void addBindings(Bindings bindings) {
+      for (int i = 0; i < bindings.size(); i++) {
+        final Input<?> input = bindings.input(i);
+
+        if (boundValues.containsKey(input)) {
+          duplicates.add(input);
+        }
+        boundValues.put(input, bindings.value(i));
+        addInput(input);
+      }
+    }
+
+    private void addInput(Input<?> input) {
+      if (!inputIndices.containsKey(input)) {
+        inputIndices.put(input, inputs.size());
+        inputs.add(input);
+      }
+    }
+
+    private static GraphBuilder<?> unwrap(Graph<?> graph) {
+      if (graph instanceof PreparedGraph) {
+        return ((PreparedGraph<?>) graph).getGraph();
+      }
+      if (graph instanceof GraphBuilder) {
+        return (GraphBuilder<?>) graph;
+      }
+
+      throw new IllegalStateException("PROGRAMMER ERROR: illegal graph object: " + graph);
+    }
+  }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * A function that invokes another function once per element of a list, and returns the results
+ * in the order of the elements. At most a given number of invocations are in flight at the same
+ * time; the next element is started when one of them completes.
+ *
+ * An element whose invocation fails gets the value of the element fallback, if there is one.
+ * Otherwise, the whole list fails with that failure, and no further elements are started.
+ *
+ * In a graph, the function is invoked on the executor of the node, also for elements that are
+ * started when an earlier element completes on some other thread. Beyond that, elements aren't
+ * nodes of the graph, and what applies to nodes applies to the list as a whole:
+ * <ul>
+ *   <li>listeners, such as {@link LatencyRecorder} and traced runs, see a single node whose
+ *   latency covers all elements, since their events are about the {@link NodeInfo}s of the
+ *   graph, which elements don't have;</li>
+ *   <li>the node's timeout limits the whole list; a time limit per element belongs in the
+ *   function, with the element fallback handling the failure;</li>
+ *   <li>the node's concurrency limiter counts the invocations of the node, while
+ *   {@code maxInFlight} limits the elements of each invocation. Limits per element across
+ *   runs are a matter for what the function calls, since a limiter would have to queue
+ *   elements outside of any run.</li>
+ * </ul>
+ */
+final class ForEach<T, R> implements Func1<List<T>, List<R>> {
+  private final Func1<T, R> func;
+  private final int maxInFlight;
+  private final Optional<AsyncFunction<Throwable, R>> fallback;
+
+  ForEach(Func1<T, R> func, int maxInFlight, Optional<AsyncFunction<Throwable, R>> fallback) {
+    checkArgument(maxInFlight > 0, "maxInFlight must be positive: %s", maxInFlight);
+
+    this.func = checkNotNull(func, "func");
+    this.maxInFlight = maxInFlight;
+    this.fallback = checkNotNull(fallback, "fallback");
+  }
+
+  @Override
+  public ListenableFuture<List<R>> run(List<T> elements) {
+    return run(elements, TraverseState.SAME_THREAD_EXECUTOR);
+  }
+
+  /**
+   * Invokes the function for each element on the given executor.
+   */
+  ListenableFuture<List<R>> run(List<T> elements, Executor executor) {
+    checkNotNull(elements, "elements");
+    checkNotNull(executor, "executor");
+
+    if (elements.isEmpty()) {
+      return immediateFuture(Collections.<R>emptyList());
+    }
+
+    final Iteration iteration = new Iteration(elements, executor);
+    iteration.drain();
+    return iteration.result;
+  }
+
+  /**
+   * The state of a single invocation of the function over a list.
+   *
+   * Elements are started by a loop that only one thread runs at a time, as in
+   * {@link TraverseState}, so that elements whose futures complete immediately don't start the
+   * next element recursively.
+   */
+  private final class Iteration {
+    private final List<T> elements;
+    private final Executor executor;
+    private final Object[] values;
+    private final AtomicReferenceArray<ListenableFuture<R>> futures;
+    private final SettableFuture<List<R>> result = SettableFuture.create();
+    private final AtomicInteger remaining;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // only accessed by the thread that holds wip
+    private int next;
+
+    private Iteration(List<T> elements, Executor executor) {
+      this.elements = elements;
+      this.executor = executor;
+      this.values = new Object[elements.size()];
+      this.futures = new AtomicReferenceArray<ListenableFuture<R>>(elements.size());
+      this.remaining = new AtomicInteger(elements.size());
+
+      result.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (result.isCancelled()) {
+            cancelInFlight();
+          }
+        }
+      }, sameThreadExecutor());
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+
+      do {
+        while (!result.isDone() && next < elements.size() && inFlight.get() < maxInFlight) {
+          inFlight.incrementAndGet();
+          start(next++);
+        }
+      } while (wip.decrementAndGet() != 0);
+    }
+
+    private void start(final int index) {
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            invoke(index);
+          }
+        });
+      } catch (RuntimeException e) {
+        final ListenableFuture<R> rejected = immediateFailedFuture(e);
+        listen(index, rejected, false);
+      }
+    }
+
+    private void invoke(int index) {
+      // the list may have failed or been cancelled while the element was waiting for a thread
+      if (result.isDone()) {
+        return;
+      }
+
+      ListenableFuture<R> future;
+
+      try {
+        future = checkNotNull(func.run(elements.get(index)), "function returned a null future");
+      } catch (RuntimeException e) {
+        future = immediateFailedFuture(e);
+      }
+
+      listen(index, future, false);
+    }
+
+    private void listen(final int index, final ListenableFuture<R> future,
+                        final boolean isFallback) {
+      futures.set(index, future);
+
+      future.addListener(new Runnable() {
+        @Override
+        public void run() {
+          completed(index, future, isFallback);
+        }
+      }, sameThreadExecutor());
+    }
+
+    private void completed(int index, ListenableFuture<R> future, boolean isFallback) {
+      final R value;
+
+      try {
+        value = getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        failed(index, e.getCause(), isFallback);
+        return;
+      } catch (CancellationException e) {
+        failed(index, e, isFallback);
+        return;
+      }
+
+      values[index] = value;
+
+      if (remaining.decrementAndGet() == 0) {
+        // the values are of the type returned by the function
+        //noinspection unchecked
+        result.set(Collections.unmodifiableList(Arrays.asList((R[]) values)));
+      } else {
+        inFlight.decrementAndGet();
+        drain();
+      }
+    }
+
+    private void failed(int index, Throwable t, boolean isFallback) {
+      if (result.isDone()) {
+        return;
+      }
+
+      if (isFallback || !fallback.isPresent()) {
+        result.setException(t);
+        return;
+      }
+
+      ListenableFuture<R> future;
+
+      try {
+        future = checkNotNull(fallback.get().apply(t), "fallback returned a null future");
+      } catch (Exception e) {
+        future = immediateFailedFuture(e);
+      }
+
+      listen(index, future, true);
+    }
+
+    private void cancelInFlight() {
+      for (int i = 0; i < futures.length(); i++) {
+        final ListenableFuture<R> future = futures.get(i);
+
+        if (future != null) {
+          future.cancel(false);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Computes a concurrency limit from observed latencies, using a gradient between a long-term
+ * and a short-term average of the latency. The limit starts out low; while the two averages
+ * agree, it grows by a fraction of its square root per sample, up to the maximum. When latency
+ * rises above the long-term average, meaning that requests are queueing up somewhere, the
+ * limit is pulled towards a target that shrinks in proportion, to as little as half the limit.
+ * The long-term average slowly follows the short-term one, so that the limit recovers once a
+ * new latency level has become the norm; under sustained overload, this also lets the limit
+ * creep upwards, over thousands of samples.
+ *
+ * The limit doesn't grow while less than half of it is in use, since samples taken then say
+ * nothing about whether more concurrency would be handled well.
+ *
+ * Instances are not thread safe; {@link ConcurrencyLimiter} calls them while holding its lock.
+ */
+final class GradientLimit {
+  private static final double SHORT_WINDOW = 10;
+  private static final double LONG_WINDOW = 600;
+  private static final double SMOOTHING = 0.2;
+  private static final double MIN_GRADIENT = 0.5;
+  private static final int INITIAL_LIMIT = 20;
+
+  private final int maxLimit;
+
+  private double limit;
+  private double shortRtt;
+  private double longRtt;
+
+  GradientLimit(int maxLimit) {
+    checkArgument(maxLimit > 0, "maxLimit must be positive: %s", maxLimit);
+
+    this.maxLimit = maxLimit;
+    this.limit = Math.min(maxLimit, INITIAL_LIMIT);
+  }
+
+  /**
+   * Updates the limit with the latency of a completed invocation.
+   *
+   * @param rttNanos  the latency of the invocation
+   * @param inFlight  the number of invocations in flight when it completed, including itself
+   * @return the new limit
+   */
+  int update(long rttNanos, int inFlight) {
+    final double rtt = Math.max(1, rttNanos);
+
+    if (longRtt == 0) {
+      shortRtt = rtt;
+      longRtt = rtt;
+    } else {
+      shortRtt += (rtt - shortRtt) / SHORT_WINDOW;
+      longRtt += (shortRtt - longRtt) / LONG_WINDOW;
+    }
+
+    // latency has dropped well below the long-term average, so let the average catch up faster
+    if (longRtt / shortRtt > 2) {
+      longRtt *= 0.95;
+    }
+
+    if (inFlight < limit / 2) {
+      return limit();
+    }
+
+    final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longRtt / shortRtt));
+    final double newLimit = limit * gradient + Math.sqrt(limit);
+
+    limit = Math.max(1, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+    return limit();
+  }
+
+  int limit() {
+    return (int) limit;
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.spotify.trickle;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.concurrent.Executor;
@@ -47,6 +49,65 @@ public abstract class Graph<T> implements Parameter<T>, NodeInfo {
    */
   public abstract <P> Graph<T> bind(Input<P> input, ListenableFuture<P> inputFuture);
 
+  /**
+   * Bind a number of input parameters at once. This is equivalent to calling
+   * {@link #bind(Input, Object)} or {@link #bind(Input, ListenableFuture)} for each of the
+   * bindings, but cheaper for graphs with many inputs.
+   *
+   * @param bindings  values to assign to inputs
+   * @return a new graph instance that has the values bound
+   * @throws IllegalStateException if some input is already bound
+   */
+  public abstract Graph<T> bindAll(Bindings bindings);
+
+  /**
+   * Compile the graph into an immutable execution plan. The plan resolves the structure of the
+   * graph - the order in which nodes can be executed, and where to find the arguments for each
+   * node - once, so that runs don't have to re-discover it. Graphs are compiled when they are
+   * first run, so calling this method is only needed to make that happen eagerly, for instance
+   * at service startup.
+   *
+   * @return a graph instance that uses a precomputed execution plan
+   * @throws IllegalStateException if subgraphs contain conflicting bindings for the same
+   * {@link Input}
+   */
+  public abstract Graph<T> compile();
+
+  /**
+   * Attach a listener that is notified about the nodes in each run of the graph. Only the
+   * listener of the graph that is run is notified; listeners attached to subgraphs are ignored.
+   *
+   * @param listener  the listener to notify
+   * @return a new graph instance that notifies the listener, replacing any previous one
+   */
+  public abstract Graph<T> withListener(GraphListener listener);
+
+  /**
+   * Make runs of the graph fail fast: as soon as a failure reaches the root node - that is, a
+   * node fails and no fallback along the way handles it - the result fails, and all other nodes
+   * are cancelled, including those that are in flight. By default, the other nodes keep running
+   * to completion even though their results won't be used.
+   *
+   * @return a new graph instance whose runs fail fast
+   */
+  public abstract Graph<T> failFast();
+
+  /**
+   * Run the graph in a scope, sharing the results of nodes with other runs in the same scope.
+   * See {@link RunScope} for details.
+   *
+   * @param scope  the scope to run in
+   * @return a new graph instance that runs in the scope, replacing any previous one
+   */
+  public abstract Graph<T> withScope(RunScope scope);
+
+  /**
+   * @return hit, miss and eviction statistics for the result cache of the graph's root node, or
+   * absent if its results aren't cached
+   * @see ConfigurableGraph#cached(CacheSpec)
+   */
+  public abstract Optional<CacheStats> cacheStats();
+
   /**
    * Run the graph, executing all node methods on the thread that completes the underlying future.
    * This is equivalent to calling {@link #run(java.util.concurrent.Executor)} with
@@ -69,12 +130,42 @@ public abstract class Graph<T> implements Parameter<T>, NodeInfo {
   public abstract ListenableFuture<T> run(Executor executor);
 
   /**
-   * Package private method for running the graph from an existing state.
+   * Run the graph, executing node methods on the supplied executor, and trying to be done by the
+   * deadline. Before a node is invoked, its expected execution time - learned from earlier runs
+   * with deadlines - is compared to the time remaining; if there isn't enough time left, the node
+   * is not invoked, and fails with a {@link java.util.concurrent.TimeoutException}, which is
+   * passed to its fallback, if it has one. Each skip lowers the node's expected execution time a
+   * little, so that a node isn't skipped forever because of a single slow invocation. The timeouts
+   * of nodes that have one are also shortened to the time remaining.
+   *
+   * @param executor to run callbacks on
+   * @param deadline the deadline for the run
+   * @return a future for the value returned by the graph execution
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
+   */
+  public abstract ListenableFuture<T> run(Executor executor, Deadline deadline);
+
+  /**
+   * Run the graph like {@link #run()}, recording when each node is scheduled, started and
+   * finished. Tracing has a cost, so it is intended for diagnosing individual slow runs.
+   *
+   * @return a future for the traced run; this future succeeds even if the run itself fails
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
+   */
+  public abstract ListenableFuture<TracedRun<T>> runTraced();
+
+  /**
+   * Run the graph like {@link #run(Executor)}, recording when each node is scheduled, started
+   * and finished.
    *
-   * @param state  state to continue running from
-   * @return future for the value returned by the graph execution
+   * @param executor to run callbacks on
+   * @return a future for the traced run; this future succeeds even if the run itself fails
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
    */
-  abstract ListenableFuture<T> run(TraverseState state);
+  public abstract ListenableFuture<TracedRun<T>> runTraced(Executor executor);
 
   // prevent construction from outside of package
   Graph() {}
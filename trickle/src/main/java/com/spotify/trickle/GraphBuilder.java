@@ -18,6 +18,7 @@ package com.spotify.trickle;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AsyncFunction;
@@ -25,8 +26,10 @@ import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Optional.of;
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.collect.ImmutableList.copyOf;
 import static java.util.Arrays.asList;
@@ -35,6 +38,8 @@ import static java.util.Arrays.asList;
  * Builder class that manages most of what's needed to hook up a node into a graph.
  */
 class GraphBuilder<R> extends ConfigurableGraph<R> {
+  static final long NO_TIMEOUT = -1;
+
   private final String name;
   private final TrickleNode<R> node;
 
@@ -42,38 +47,84 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
   private final ImmutableList<Graph<?>> predecessors;
 
   private final Optional<AsyncFunction<Throwable, R>> fallback;
+  private final long timeoutNanos;
+  private final Optional<Executor> executor;
+  private final Optional<ConcurrencyLimiter> limiter;
+  private final Optional<NodeCache<R>> cache;
+
+  // lazily compiled when the graph is first run with this node as its root
+  private volatile ExecutionPlan<R> plan;
 
   GraphBuilder(String name,
                TrickleNode<R> node,
                ImmutableList<Dep<?>> inputs,
                ImmutableList<Graph<?>> predecessors,
-               Optional<AsyncFunction<Throwable, R>> fallback) {
+               Optional<AsyncFunction<Throwable, R>> fallback,
+               long timeoutNanos,
+               Optional<Executor> executor,
+               Optional<ConcurrencyLimiter> limiter,
+               Optional<NodeCache<R>> cache) {
     this.name = checkNotNull(name, "name");
     this.node = checkNotNull(node, "node");
     this.inputs = checkNotNull(inputs, "inputs");
     this.predecessors = checkNotNull(predecessors, "predecessors");
     this.fallback = checkNotNull(fallback, "fallback");
+    this.timeoutNanos = timeoutNanos;
+    this.executor = checkNotNull(executor, "executor");
+    this.limiter = checkNotNull(limiter, "limiter");
+    this.cache = checkNotNull(cache, "cache");
   }
 
   GraphBuilder(Func<R> func) {
     this("unnamed", TrickleNode.create(func), ImmutableList.<Dep<?>>of(),
-         ImmutableList.<Graph<?>>of(), Optional.<AsyncFunction<Throwable, R>>absent());
+         ImmutableList.<Graph<?>>of(), Optional.<AsyncFunction<Throwable, R>>absent(),
+         NO_TIMEOUT, Optional.<Executor>absent(), Optional.<ConcurrencyLimiter>absent(),
+         Optional.<NodeCache<R>>absent());
   }
 
   private GraphBuilder<R> withName(String name) {
-    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback);
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               executor, limiter, cache);
   }
 
   private GraphBuilder<R> withInputs(ImmutableList<Dep<?>> newInputs) {
-    return new GraphBuilder<R>(name, node, with(inputs, newInputs), predecessors, fallback);
+    return new GraphBuilder<R>(name, node, with(inputs, newInputs), predecessors, fallback,
+                               timeoutNanos, executor, limiter, cache);
   }
 
   private GraphBuilder<R> withPredecessors(ImmutableList<Graph<?>> newPredecessors) {
-    return new GraphBuilder<R>(name, node, inputs, with(predecessors, newPredecessors), fallback);
+    return new GraphBuilder<R>(name, node, inputs, with(predecessors, newPredecessors), fallback,
+                               timeoutNanos, executor, limiter, cache);
   }
 
   private GraphBuilder<R> withFallback(AsyncFunction<Throwable, R> fallback) {
-    return new GraphBuilder<R>(name, node, inputs, predecessors, of(fallback));
+    return new GraphBuilder<R>(name, node, inputs, predecessors, of(fallback), timeoutNanos,
+                               executor, limiter, cache);
+  }
+
+  private GraphBuilder<R> withTimeout(long timeoutNanos) {
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               executor, limiter, cache);
+  }
+
+  private GraphBuilder<R> withExecutor(Executor executor) {
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               of(executor), limiter, cache);
+  }
+
+  private GraphBuilder<R> withNode(TrickleNode<R> node) {
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               executor, limiter, cache);
+  }
+
+  private GraphBuilder<R> withLimiter(ConcurrencyLimiter limiter) {
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               executor, of(limiter), cache);
+  }
+
+  private GraphBuilder<R> withCache(NodeCache<R> cache) {
+    return new GraphBuilder<R>(name, node, inputs, predecessors, fallback, timeoutNanos,
+                               executor, limiter, of(cache));
   }
 
   static <E> ImmutableList<E> with(ImmutableList<E> list, List<E> elements) {
@@ -115,6 +166,50 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
     return withFallback(handler);
   }
 
+  @Override
+  public ConfigurableGraph<R> timeout(long timeout, TimeUnit unit) {
+    checkArgument(timeout > 0, "timeout must be positive: %s", timeout);
+    return withTimeout(checkNotNull(unit, "unit").toNanos(timeout));
+  }
+
+  @Override
+  public ConfigurableGraph<R> executeOn(Executor executor) {
+    return withExecutor(checkNotNull(executor, "executor"));
+  }
+
+  @Override
+  public ConfigurableGraph<R> maxConcurrency(int maxConcurrent, int maxQueued) {
+    return withLimiter(ConcurrencyLimiter.fixed(maxConcurrent, maxQueued));
+  }
+
+  @Override
+  public ConfigurableGraph<R> adaptiveConcurrency(int maxConcurrent, int maxQueued) {
+    return withLimiter(ConcurrencyLimiter.adaptive(maxConcurrent, maxQueued));
+  }
+
+  @Override
+  public ConfigurableGraph<R> coalesce() {
+    if (node instanceof CoalescingNode) {
+      return this;
+    }
+
+    return withNode(new CoalescingNode<R>(node));
+  }
+
+  @Override
+  public ConfigurableGraph<R> cached(CacheSpec spec) {
+    return withCache(new NodeCache<R>(spec));
+  }
+
+  @Override
+  public Optional<CacheStats> cacheStats() {
+    if (!cache.isPresent()) {
+      return Optional.absent();
+    }
+
+    return of(cache.get().stats());
+  }
+
   @Override
   public ConfigurableGraph<R> named(String name) {
     return withName(name);
@@ -135,6 +230,31 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
     return new PreparedGraph<R>(this).bind(input, inputFuture);
   }
 
+  @Override
+  public Graph<R> bindAll(Bindings bindings) {
+    return new PreparedGraph<R>(this).bindAll(bindings);
+  }
+
+  @Override
+  public Graph<R> withListener(GraphListener listener) {
+    return new PreparedGraph<R>(this).withListener(listener);
+  }
+
+  @Override
+  public Graph<R> failFast() {
+    return new PreparedGraph<R>(this).failFast();
+  }
+
+  @Override
+  public Graph<R> withScope(RunScope scope) {
+    return new PreparedGraph<R>(this).withScope(scope);
+  }
+
+  @Override
+  public Graph<R> compile() {
+    return new PreparedGraph<R>(this).compile();
+  }
+
   @Override
   public ListenableFuture<R> run() {
     return new PreparedGraph<R>(this).run();
@@ -146,8 +266,30 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
   }
 
   @Override
-  ListenableFuture<R> run(TraverseState state) {
-    return new PreparedGraph<R>(this).run(state);
+  public ListenableFuture<R> run(Executor executor, Deadline deadline) {
+    return new PreparedGraph<R>(this).run(executor, deadline);
+  }
+
+  @Override
+  public ListenableFuture<TracedRun<R>> runTraced() {
+    return new PreparedGraph<R>(this).runTraced();
+  }
+
+  @Override
+  public ListenableFuture<TracedRun<R>> runTraced(Executor executor) {
+    return new PreparedGraph<R>(this).runTraced(executor);
+  }
+
+  ExecutionPlan<R> getPlan() {
+    ExecutionPlan<R> result = plan;
+
+    if (result == null) {
+      // benign race; compiling the same graph more than once yields equivalent plans
+      result = ExecutionPlan.compile(this);
+      plan = result;
+    }
+
+    return result;
   }
 
   TrickleNode<R> getNode() {
@@ -166,6 +308,26 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
     return fallback;
   }
 
+  boolean hasTimeout() {
+    return timeoutNanos != NO_TIMEOUT;
+  }
+
+  long getTimeoutNanos() {
+    return timeoutNanos;
+  }
+
+  Optional<Executor> getExecutor() {
+    return executor;
+  }
+
+  Optional<ConcurrencyLimiter> getLimiter() {
+    return limiter;
+  }
+
+  Optional<NodeCache<R>> getCache() {
+    return cache;
+  }
+
   @Override
   public String name() {
     return name;
@@ -198,6 +360,10 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
       super(func);
     }
 
+    GraphBuilder1(SyncFunc1<A, R> func) {
+      super(func);
+    }
+
     @Override
     @SuppressWarnings("PMD.UselessOverridingMethod")
     // this method override is not useless - it ensures that you can only call the 'with'
@@ -214,6 +380,10 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
       super(func);
     }
 
+    GraphBuilder2(SyncFunc2<A, B, R> func) {
+      super(func);
+    }
+
     @Override
     public ConfigurableGraph<R> with(Parameter<A> arg1, Parameter<B> arg2) {
       return super.with(arg1, arg2);
@@ -227,6 +397,10 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
       super(func);
     }
 
+    GraphBuilder3(SyncFunc3<A, B, C, R> func) {
+      super(func);
+    }
+
     @Override
     public ConfigurableGraph<R> with(Parameter<A> arg1, Parameter<B> arg2, Parameter<C> arg3) {
       return super.with(arg1, arg2, arg3);
@@ -240,6 +414,10 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
       super(func);
     }
 
+    GraphBuilder4(SyncFunc4<A, B, C, D, R> func) {
+      super(func);
+    }
+
     @Override
     public ConfigurableGraph<R> with(Parameter<A> arg1, Parameter<B> arg2, Parameter<C> arg3, Parameter<D> arg4) {
       return super.with(arg1, arg2, arg3, arg4);
@@ -253,6 +431,10 @@ class GraphBuilder<R> extends ConfigurableGraph<R> {
       super(func);
     }
 
+    GraphBuilder5(SyncFunc5<A, B, C, D, E, R> func) {
+      super(func);
+    }
+
     @Override
     public ConfigurableGraph<R> with(Parameter<A> arg1, Parameter<B> arg2, Parameter<C> arg3, Parameter<D> arg4, Parameter<E> arg5) {
       return super.with(arg1, arg2, arg3, arg4, arg5);
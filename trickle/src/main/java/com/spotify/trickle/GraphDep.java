@@ -16,8 +16,6 @@
 
 package com.spotify.trickle;
 
-import com.google.common.util.concurrent.ListenableFuture;
-
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class GraphDep<T> implements Dep<T> {
@@ -29,12 +27,11 @@ class GraphDep<T> implements Dep<T> {
   }
 
   @Override
-  public ListenableFuture<T> getFuture(TraverseState state) {
-    return state.futureForGraph(graph);
+  public NodeInfo getNodeInfo() {
+    return graph;
   }
 
-  @Override
-  public NodeInfo getNodeInfo() {
+  Graph<T> getGraph() {
     return graph;
   }
 }
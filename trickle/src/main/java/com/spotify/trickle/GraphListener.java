@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+/**
+ * Receives notifications about runs of a graph, for instance to collect metrics. Register a
+ * listener using {@link Graph#withListener(GraphListener)}. Graphs without a listener don't pay
+ * anything for this facility.
+ *
+ * Listeners are invoked synchronously on the threads that run the graph, so they should be fast
+ * and must be thread safe. Exceptions thrown by listeners are ignored.
+ */
+public interface GraphListener {
+  /**
+   * Called when a run of the graph starts.
+   *
+   * @param graph  the root node of the graph being run
+   * @param nanoTime  the time the run started, as given by {@link System#nanoTime()}
+   * @return the listener that should receive the events for the nodes in this run. This can be
+   * a new instance per run, if the listener needs to keep per-run state, or a shared instance.
+   */
+  NodeListener runStarted(NodeInfo graph, long nanoTime);
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.spotify.trickle.TrickleNode.SyncTrickleNode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newIdentityHashMap;
+
+/**
+ * A set of graphs that are run together, in a single traversal with a single set of bindings.
+ * Nodes that the graphs have in common are run once, and the results of all graphs are returned
+ * in a {@link Results} instance.
+ *
+ * The run fails if any of the graphs fails. Internally, the graphs are run as the arguments of
+ * a synchronous node named "graphSet", which is what listeners see as the root of the run.
+ *
+ * This class is immutable and thread safe. Calls to any of the bind methods will return a new
+ * instance containing that binding.
+ */
+public final class GraphSet {
+  private final ImmutableList<Graph<?>> graphs;
+  private final Map<Graph<?>, Integer> indices;
+  private final GraphBuilder<Results> root;
+  private final Bindings bindings;
+  @Nullable
+  private final GraphListener listener;
+  private final boolean failFast;
+  @Nullable
+  private final RunScope scope;
+
+  private GraphSet(ImmutableList<Graph<?>> graphs,
+                   Map<Graph<?>, Integer> indices,
+                   GraphBuilder<Results> root,
+                   Bindings bindings,
+                   @Nullable GraphListener listener,
+                   boolean failFast,
+                   @Nullable RunScope scope) {
+    this.graphs = graphs;
+    this.indices = indices;
+    this.root = root;
+    this.bindings = bindings;
+    this.listener = listener;
+    this.failFast = failFast;
+    this.scope = scope;
+  }
+
+  /**
+   * @return a set of the given graphs; the same graph instances are used to get their results
+   * from the {@link Results}
+   */
+  public static GraphSet of(Graph<?>... graphs) {
+    checkArgument(graphs.length > 0, "a graph set needs at least one graph");
+
+    final ImmutableList<Graph<?>> graphList = ImmutableList.copyOf(graphs);
+    final Map<Graph<?>, Integer> indices = newIdentityHashMap();
+    final ImmutableList.Builder<Dep<?>> deps = ImmutableList.builder();
+
+    for (int i = 0; i < graphList.size(); i++) {
+      indices.put(graphList.get(i), i);
+      deps.add(dep(graphList.get(i)));
+    }
+
+    final GraphBuilder<Results> root = new GraphBuilder<Results>(
+        "graphSet", new CombinerNode(indices), deps.build(), ImmutableList.<Graph<?>>of(),
+        Optional.<AsyncFunction<Throwable, Results>>absent(), GraphBuilder.NO_TIMEOUT,
+        Optional.<Executor>absent(),
+        Optional.<ConcurrencyLimiter>absent(), Optional.<NodeCache<Results>>absent());
+
+    return new GraphSet(graphList, indices, root, Bindings.of(), null, false, null);
+  }
+
+  private static <T> Dep<T> dep(Graph<T> graph) {
+    return new GraphDep<T>(graph);
+  }
+
+  public <P> GraphSet bind(Input<P> input, P value) {
+    return withBindings(bindings.with(input, value));
+  }
+
+  public <P> GraphSet bind(Input<P> input, ListenableFuture<P> inputFuture) {
+    return withBindings(bindings.with(input, inputFuture));
+  }
+
+  public GraphSet bindAll(Bindings bindings) {
+    return withBindings(this.bindings.withAll(bindings));
+  }
+
+  /**
+   * Attach a listener that is notified about the nodes in each run of the graphs, like
+   * {@link Graph#withListener(GraphListener)}. The root node that the listener sees is the
+   * "graphSet" node.
+   *
+   * @return a new instance that notifies the listener, replacing any previous one
+   */
+  public GraphSet withListener(GraphListener listener) {
+    return new GraphSet(graphs, indices, root, bindings, checkNotNull(listener, "listener"),
+                        failFast, scope);
+  }
+
+  /**
+   * Make runs of the graphs fail fast, like {@link Graph#failFast()}: as soon as any of the
+   * graphs fails, the run fails and the nodes still running are cancelled.
+   *
+   * @return a new instance whose runs fail fast
+   */
+  public GraphSet failFast() {
+    return new GraphSet(graphs, indices, root, bindings, listener, true, scope);
+  }
+
+  /**
+   * Run the graphs in a scope, like {@link Graph#withScope(RunScope)}.
+   *
+   * @return a new instance that runs in the scope, replacing any previous one
+   */
+  public GraphSet withScope(RunScope scope) {
+    return new GraphSet(graphs, indices, root, bindings, listener, failFast,
+                        checkNotNull(scope, "scope"));
+  }
+
+  /**
+   * Run the graphs, executing all node methods on the thread that completes the underlying
+   * future.
+   *
+   * @return a future for the results of the graphs
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
+   */
+  public ListenableFuture<Results> run() {
+    return run(TraverseState.SAME_THREAD_EXECUTOR);
+  }
+
+  /**
+   * Run the graphs, executing node methods on the supplied executor.
+   *
+   * @return a future for the results of the graphs
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
+   */
+  public ListenableFuture<Results> run(Executor executor) {
+    return root.getPlan().run(bindings, executor, listener, null, failFast, scope);
+  }
+
+  /**
+   * Run the graphs, executing node methods on the supplied executor, and trying to be done by
+   * the deadline, like {@link Graph#run(Executor, Deadline)}.
+   *
+   * @return a future for the results of the graphs
+   * @throws IllegalArgumentException if not all {@link Input}s used in node invocations are bound
+   * to values
+   */
+  public ListenableFuture<Results> run(Executor executor, Deadline deadline) {
+    checkNotNull(deadline, "deadline");
+    return root.getPlan().run(bindings, executor, listener, deadline, failFast, scope);
+  }
+
+  private GraphSet withBindings(Bindings bindings) {
+    return new GraphSet(graphs, indices, root, bindings, listener, failFast, scope);
+  }
+
+  /**
+   * The results of a run of a {@link GraphSet}.
+   */
+  public static final class Results {
+    private final Map<Graph<?>, Integer> indices;
+    private final Object[] values;
+
+    private Results(Map<Graph<?>, Integer> indices, Object[] values) {
+      this.indices = indices;
+      this.values = values;
+    }
+
+    /**
+     * @param graph  one of the graph instances that the set was created with
+     * @return the result of that graph
+     * @throws IllegalArgumentException if the graph isn't part of the set
+     */
+    @Nullable
+    public <T> T get(Graph<T> graph) {
+      final Integer index = indices.get(checkNotNull(graph, "graph"));
+      checkArgument(index != null, "graph %s is not part of the set", graph);
+
+      // the type is guaranteed by the graph that produced the value
+      //noinspection unchecked
+      return (T) values[index];
+    }
+  }
+
+  /**
+   * The root node of the run, which collects the results of the graphs.
+   */
+  private static final class CombinerNode extends SyncTrickleNode<Results> {
+    private final Map<Graph<?>, Integer> indices;
+
+    private CombinerNode(Map<Graph<?>, Integer> indices) {
+      this.indices = indices;
+    }
+
+    @Override
+    Results apply(List<Object> values) {
+      return new Results(indices, values.toArray());
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Maps.newIdentityHashMap;
+
+/**
+ * A {@link GraphListener} that keeps histograms of the latencies of nodes, keyed by the node
+ * names given using {@link ConfigurableGraph#named(String)}. Nodes that share a name, including
+ * nodes that have not been given a name, share histograms.
+ *
+ * Recording is done without locks shared between runs, so a single recorder can be attached to
+ * graphs that are run at high rates from many threads. Only nodes that are invoked are recorded;
+ * nodes that fail because a dependency failed are not.
+ */
+public final class LatencyRecorder implements GraphListener {
+  private static final int DEFAULT_STRIPES = 16;
+  private static final long NOT_STARTED = Long.MIN_VALUE;
+
+  private final ConcurrentMap<String, Histograms> histograms = newConcurrentMap();
+  private final int stripes;
+
+  private LatencyRecorder(int stripes) {
+    checkArgument(Integer.bitCount(stripes) == 1, "stripes must be a power of two: %s", stripes);
+    this.stripes = stripes;
+  }
+
+  /**
+   * @return a new recorder
+   */
+  public static LatencyRecorder create() {
+    return new LatencyRecorder(DEFAULT_STRIPES);
+  }
+
+  /**
+   * @param stripes  the number of stripes to use for each histogram; more stripes means less
+   *                 contention between threads. Must be a power of two.
+   * @return a new recorder
+   */
+  public static LatencyRecorder create(int stripes) {
+    return new LatencyRecorder(stripes);
+  }
+
+  @Override
+  public NodeListener runStarted(NodeInfo graph, long nanoTime) {
+    checkNotNull(graph, "graph");
+    return new RunRecorder(nanoTime);
+  }
+
+  /**
+   * @return snapshots of the latencies of all nodes recorded so far, keyed by node name
+   */
+  public ImmutableMap<String, NodeLatencies> snapshot() {
+    final ImmutableMap.Builder<String, NodeLatencies> result = ImmutableMap.builder();
+
+    for (Map.Entry<String, Histograms> entry : histograms.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().snapshot());
+    }
+
+    return result.build();
+  }
+
+  private Histograms histograms(String name) {
+    final Histograms existing = histograms.get(name);
+
+    if (existing != null) {
+      return existing;
+    }
+
+    final Histograms created = new Histograms(stripes);
+    final Histograms raced = histograms.putIfAbsent(name, created);
+
+    return raced != null ? raced : created;
+  }
+
+  private static final class Histograms {
+    private final StripedHistogram dependencyWaitTime;
+    private final StripedHistogram queueTime;
+    private final StripedHistogram executionTime;
+    private final StripedHistogram totalTime;
+
+    private Histograms(int stripes) {
+      dependencyWaitTime = new StripedHistogram(stripes);
+      queueTime = new StripedHistogram(stripes);
+      executionTime = new StripedHistogram(stripes);
+      totalTime = new StripedHistogram(stripes);
+    }
+
+    private NodeLatencies snapshot() {
+      return new NodeLatencies(dependencyWaitTime.snapshot(),
+                               queueTime.snapshot(),
+                               executionTime.snapshot(),
+                               totalTime.snapshot());
+    }
+  }
+
+  /**
+   * Keeps track of when nodes were scheduled and started within a single run.
+   */
+  private final class RunRecorder implements NodeListener {
+    private final long runStarted;
+    private final Map<NodeInfo, long[]> times = newIdentityHashMap();
+
+    private RunRecorder(long runStarted) {
+      this.runStarted = runStarted;
+    }
+
+    @Override
+    public synchronized void nodeScheduled(NodeInfo node, long nanoTime) {
+      times.put(node, new long[] {nanoTime, NOT_STARTED});
+    }
+
+    @Override
+    public synchronized void nodeStarted(NodeInfo node, long nanoTime) {
+      final long[] nodeTimes = times.get(node);
+
+      if (nodeTimes != null) {
+        nodeTimes[1] = nanoTime;
+      }
+    }
+
+    @Override
+    public void nodeCompleted(NodeInfo node, long nanoTime) {
+      record(node, nanoTime);
+    }
+
+    @Override
+    public void nodeFailed(NodeInfo node, Throwable t, long nanoTime) {
+      record(node, nanoTime);
+    }
+
+    @Override
+    public void fallbackUsed(NodeInfo node, Throwable t, long nanoTime) {
+      // the outcome of the fallback is reported as a completion or failure of the node
+    }
+
+    private void record(NodeInfo node, long finished) {
+      final long[] nodeTimes;
+
+      synchronized (this) {
+        nodeTimes = times.remove(node);
+      }
+
+      if (nodeTimes == null || nodeTimes[1] == NOT_STARTED) {
+        // the node was never invoked
+        return;
+      }
+
+      final Histograms nodeHistograms = histograms(checkNotNull(node.name(), "name"));
+
+      nodeHistograms.dependencyWaitTime.record(Math.max(0, nodeTimes[0] - runStarted));
+      nodeHistograms.queueTime.record(Math.max(0, nodeTimes[1] - nodeTimes[0]));
+      nodeHistograms.executionTime.record(Math.max(0, finished - nodeTimes[1]));
+      nodeHistograms.totalTime.record(Math.max(0, finished - runStarted));
+    }
+  }
+}
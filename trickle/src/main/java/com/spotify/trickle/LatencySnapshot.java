@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * An immutable snapshot of the distribution of a latency, in nanoseconds. Percentiles are
+ * approximate, with a relative error of about 6%; they are rounded upwards, so they never
+ * underestimate the latency.
+ */
+public final class LatencySnapshot {
+  private final long[] counts;
+  private final long count;
+
+  LatencySnapshot(long[] counts) {
+    this.counts = counts;
+
+    long sum = 0;
+    for (long bucketCount : counts) {
+      sum += bucketCount;
+    }
+    this.count = sum;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * @param percentile  the percentile to get, between 0 and 100
+   * @return the latency, in nanoseconds, below which the given percentage of the recorded values
+   * fall, or 0 if there are no recorded values
+   */
+  public long percentile(double percentile) {
+    checkArgument(percentile >= 0 && percentile <= 100,
+                  "percentile must be between 0 and 100: %s", percentile);
+
+    if (count == 0) {
+      return 0;
+    }
+
+    final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+
+      if (seen >= rank) {
+        return StripedHistogram.bucketUpperBound(i);
+      }
+    }
+
+    throw new IllegalStateException("PROGRAMMER ERROR: rank " + rank + " exceeds count " + count);
+  }
+
+  public long p50() {
+    return percentile(50);
+  }
+
+  public long p99() {
+    return percentile(99);
+  }
+
+  public long p999() {
+    return percentile(99.9);
+  }
+
+  @Override
+  public String toString() {
+    return "LatencySnapshot{count=" + count + ", p50=" + p50() + ", p99=" + p99()
+           + ", p999=" + p999() + '}';
+  }
+}
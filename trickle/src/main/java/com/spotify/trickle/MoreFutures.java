@@ -0,0 +1,65 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Future utilities that Guava doesn't provide in the version Trickle depends on.
+ */
+final class MoreFutures {
+  private MoreFutures() {
+    // prevent instantiation
+  }
+
+  /**
+   * Returns a future that completes like the given one, but that can be cancelled without
+   * cancelling the given one. This is used to share a future between runs, any of which may be
+   * cancelled.
+   */
+  static <T> ListenableFuture<T> copyOf(final ListenableFuture<T> future) {
+    final SettableFuture<T> copy = SettableFuture.create();
+
+    future.addListener(new Runnable() {
+      @Override
+      public void run() {
+        transfer(future, copy);
+      }
+    }, sameThreadExecutor());
+
+    return copy;
+  }
+
+  /**
+   * Completes a settable future like a completed one.
+   */
+  static <T> void transfer(ListenableFuture<T> from, SettableFuture<T> to) {
+    try {
+      to.set(getUninterruptibly(from));
+    } catch (ExecutionException e) {
+      to.setException(e.getCause());
+    } catch (CancellationException e) {
+      to.cancel(false);
+    }
+  }
+}
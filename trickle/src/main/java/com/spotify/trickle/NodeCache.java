@@ -0,0 +1,110 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the results of a node, keyed by its argument values, across all runs of all graphs
+ * that the node is part of. Results are looked up before the node is dispatched, and stored
+ * when the node's own future succeeds; results of fallbacks and null results are not cached.
+ *
+ * Stale results are refreshed by the runs themselves: the first run that looks up a stale result
+ * is told that there is none, so that it invokes the node like on any miss - on the node's
+ * executor, subject to its concurrency limit and timeout - and stores the new result. Other runs
+ * keep getting the stale result meanwhile. If the refresh doesn't produce a result, the next one
+ * is attempted once the refresh time has passed again.
+ */
+final class NodeCache<N> {
+  private final Cache<List<Object>, Entry<N>> cache;
+  private final long refreshAfterWriteNanos;
+
+  NodeCache(CacheSpec spec) {
+    checkNotNull(spec, "spec");
+
+    final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+        .maximumSize(spec.maximumSize())
+        .recordStats();
+
+    if (spec.expireAfterWriteNanos() != CacheSpec.NEVER) {
+      builder.expireAfterWrite(spec.expireAfterWriteNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    this.cache = builder.build();
+    this.refreshAfterWriteNanos = spec.refreshAfterWriteNanos();
+  }
+
+  /**
+   * @return the cached result for the argument values, or null if there is none, or if it is
+   * stale and the caller should refresh it
+   */
+  @Nullable
+  N get(List<Object> arguments) {
+    final Entry<N> entry = cache.getIfPresent(arguments);
+
+    if (entry == null) {
+      return null;
+    }
+
+    if (refreshAfterWriteNanos != CacheSpec.NEVER && entry.claimRefresh(refreshAfterWriteNanos)) {
+      return null;
+    }
+
+    return entry.value;
+  }
+
+  void put(List<Object> arguments, @Nullable N value) {
+    if (value != null) {
+      // the argument list is reused by the caller, so the key needs a copy of its own
+      cache.put(new ArrayList<Object>(arguments), new Entry<N>(value));
+    }
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  private static final class Entry<N> {
+    private final N value;
+    // when the value was written, or when a refresh of it was last started
+    private final AtomicLong refreshedAt = new AtomicLong(System.nanoTime());
+
+    private Entry(N value) {
+      this.value = value;
+    }
+
+    /**
+     * @return true if the value is stale and the caller has been chosen to refresh it
+     */
+    private boolean claimRefresh(long refreshAfterWriteNanos) {
+      final long now = System.nanoTime();
+      final long last = refreshedAt.get();
+
+      return now - last >= refreshAfterWriteNanos && refreshedAt.compareAndSet(last, now);
+    }
+  }
+}
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.spotify.trickle.TrickleNode.SyncTrickleNode;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * The future result of a single node in a single run of a graph. It joins the node's
+ * dependencies using a counter of outstanding ones and an array of argument values, and
+ * invokes the node when the last dependency completes.
+ *
+ * Dependencies are resolved by the {@link TraverseState} as they complete, meaning that no
+ * per-dependency futures or listeners are needed.
+ */
+final class NodeFuture<T> extends AbstractFuture<T> implements Runnable {
+  private static final AtomicIntegerFieldUpdater<NodeFuture> PENDING =
+      AtomicIntegerFieldUpdater.newUpdater(NodeFuture.class, "pending");
+  private static final AtomicIntegerFieldUpdater<NodeFuture> STARTED =
+      AtomicIntegerFieldUpdater.newUpdater(NodeFuture.class, "started");
+
+  private final TraverseState state;
+  private final int slot;
+  private final GraphBuilder<T> node;
+  private final Object[] arguments;
+
+  private volatile int pending;
+  private volatile int started;
+
+  // only set in runs with a deadline or for nodes with adaptive concurrency limits; published to
+  // completing threads by the node's future
+  private long invokedAt;
+
+  // whether the node holds a permit of its concurrency limiter
+  private boolean permitted;
+
+  // the future returned by the node or its fallback, while it is outstanding
+  @Nullable
+  private volatile ListenableFuture<?> inFlight;
+
+  // the result shared with other runs in the scope, if the node was invoked first in one
+  @Nullable
+  private volatile RunScope.SharedResult<T> shared;
+
+  NodeFuture(TraverseState state, int slot, GraphBuilder<T> node, int dependencyCount) {
+    this.state = checkNotNull(state, "state");
+    this.slot = slot;
+    this.node = checkNotNull(node, "node");
+    this.arguments = new Object[node.getInputs().size()];
+    this.pending = dependencyCount;
+  }
+
+  /**
+   * Supplies the value of a dependency.
+   *
+   * @param argument  the index of the argument the value is for, or -1 if the dependency is a
+   *                  predecessor
+   * @param value  the value of the dependency
+   * @return true if this was the last outstanding dependency, meaning the node should be invoked
+   */
+  boolean resolve(int argument, @Nullable Object value) {
+    if (argument >= 0) {
+      arguments[argument] = value;
+    }
+
+    // the volatile write in the decrement publishes the argument value to the invoking thread
+    if (PENDING.decrementAndGet(this) == 0 && STARTED.compareAndSet(this, 0, 1)) {
+      notifyListener(Event.SCHEDULED, null);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return true if the node has no dependencies and should be invoked right away
+   */
+  boolean isReady() {
+    if (pending == 0 && STARTED.compareAndSet(this, 0, 1)) {
+      notifyListener(Event.SCHEDULED, null);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * @return the executor to invoke the node on, if it is not the default one of the run
+   */
+  Executor executor(Executor defaultExecutor) {
+    return node.getExecutor().or(defaultExecutor);
+  }
+
+  /**
+   * Completes the node with a cached result, if it has a cache and the result for its arguments
+   * is in it. This is done when the node is dispatched, instead of passing it to an executor.
+   *
+   * @return true if the node was completed from its cache
+   */
+  boolean completeFromCache() {
+    if (!node.getCache().isPresent()) {
+      return false;
+    }
+
+    final T value = node.getCache().get().get(Arrays.asList(arguments));
+
+    if (value == null) {
+      return false;
+    }
+
+    // a node resumed by its concurrency limiter may find its result cached
+    releasePermit(-1);
+    runChain(succeed(value));
+    return true;
+  }
+
+  /**
+   * Claims the node for handling the failure of a dependency, meaning that the node cannot be
+   * invoked.
+   *
+   * @return false if the node has already been invoked or has failed
+   */
+  boolean claimForFailure() {
+    return STARTED.compareAndSet(this, 0, 1);
+  }
+
+  /**
+   * Handles the failure of a dependency using the node's fallback. The node must have been
+   * claimed using {@link #claimForFailure()}.
+   */
+  void fallback(Throwable t) {
+    runChain(handleFailure(checkNotNull(t, "t")));
+  }
+
+  /**
+   * Fails this future because of the failure of a dependency, without propagating the failure to
+   * consumers. The node must have been claimed using {@link #claimForFailure()}.
+   */
+  void failed(Throwable t) {
+    checkNotNull(t, "t");
+
+    notifyListener(Event.FAILED, t);
+    setException(t);
+  }
+
+  /**
+   * Signals that the node could not be invoked, for instance because the executor rejected it.
+   */
+  void invocationFailed(Throwable t) {
+    checkNotNull(t, "t");
+
+    releasePermit(-1);
+    runChain(handleFailure(t));
+  }
+
+  /**
+   * Resumes a node that was queued by its concurrency limiter, once a permit has been handed to
+   * it. The node is dispatched through the work-list of its run like any other.
+   */
+  void resume() {
+    permitted = true;
+    state.dispatch(this);
+  }
+
+  /**
+   * Releases the node's permit, if it holds one; this is done when the node's own future
+   * completes, or when a node that holds a permit ends up not being invoked.
+   *
+   * @param latencyNanos  the latency of the invocation, or -1 if there was none
+   */
+  void releasePermit(long latencyNanos) {
+    if (permitted) {
+      permitted = false;
+      node.getLimiter().get().release(latencyNanos);
+    }
+  }
+
+  /**
+   * @return true if the run has been cancelled, and no other run in its scope needs the result of
+   * the node, meaning that it should neither be invoked nor completed
+   */
+  boolean isAbandoned() {
+    final RunScope.SharedResult<T> result = shared;
+    return state.isCancelled() && (result == null || result.isCancelled());
+  }
+
+  /**
+   * Makes the node publish its result to other runs in the scope. If this run is cancelled, the
+   * node keeps going as long as some other run needs the result; its future is cancelled once
+   * the shared result is.
+   */
+  private void share(final RunScope.SharedResult<T> result) {
+    shared = result;
+
+    // the listener runs right away if this run has already been cancelled
+    addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (isCancelled()) {
+          result.leave();
+        }
+      }
+    }, sameThreadExecutor());
+
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        final ListenableFuture<?> future = inFlight;
+        if (result.isCancelled() && future != null) {
+          future.cancel(false);
+        }
+      }
+    });
+  }
+
+  /**
+   * Invokes the node; this is called on the executor of the run, once all dependencies have
+   * completed. Any nodes fused with this one are invoked in the same task, as soon as their
+   * producer completes.
+   */
+  @Override
+  public void run() {
+    runChain(invoke());
+  }
+
+  private static void runChain(@Nullable NodeFuture<?> next) {
+    // a loop rather than recursion, so that long fused chains don't grow the stack
+    while (next != null) {
+      next = next.invoke();
+    }
+  }
+
+  /**
+   * Invokes the node, returning the fused consumer that should be invoked next, if any.
+   */
+  @Nullable
+  private NodeFuture<?> invoke() {
+    if (isAbandoned()) {
+      releasePermit(-1);
+      return null;
+    }
+
+    final RunScope scope = state.scope();
+
+    // a result that another run in the scope has already produced, or is producing, is used
+    // without asking the limiter or the deadline of this run
+    if (scope != null) {
+      final ListenableFuture<T> joined = scope.lookup(node, arguments);
+
+      if (joined != null) {
+        return completeShared(joined);
+      }
+    }
+
+    if (!permitted && node.getLimiter().isPresent()) {
+      final ConcurrencyLimiter limiter = node.getLimiter().get();
+
+      switch (limiter.acquire(this)) {
+        case QUEUED:
+          return null;
+        case REJECTED:
+          return handleFailure(new RejectedExecutionException(
+              "node " + node.name() + " rejected: " + limiter.limit()
+              + " invocations running and " + limiter.maxQueued() + " queued"));
+        default:
+          permitted = true;
+      }
+    }
+
+    final Deadline deadline = state.deadline();
+
+    if (deadline != null) {
+      final long remaining = deadline.remainingNanos();
+      final long expected = state.expectedCost(slot);
+
+      if (remaining <= 0 || remaining < expected) {
+        if (remaining > 0) {
+          state.recordSkipped(slot);
+        }
+
+        releasePermit(-1);
+        return handleFailure(new TimeoutException(
+            "node " + node.name() + " skipped: " + TimeUnit.NANOSECONDS.toMillis(remaining)
+            + " ms left of deadline, expected to take " + TimeUnit.NANOSECONDS.toMillis(expected)
+            + " ms"));
+      }
+
+      invokedAt = System.nanoTime();
+    } else if (permitted && node.getLimiter().get().isAdaptive()) {
+      invokedAt = System.nanoTime();
+    }
+
+    // only join the scope once the node is actually going to be invoked, so that rejections by
+    // this run's limiter or deadline aren't handed to other runs
+    if (scope != null) {
+      final RunScope.SharedResult<T> result = new RunScope.SharedResult<T>();
+      final ListenableFuture<T> joined = scope.join(node, arguments, result);
+
+      if (joined != null) {
+        releasePermit(-1);
+        return completeShared(joined);
+      }
+
+      share(result);
+    }
+
+    notifyListener(Event.STARTED, null);
+
+    if (node.getNode() instanceof SyncTrickleNode) {
+      return invokeSync((SyncTrickleNode<T>) node.getNode());
+    }
+
+    final ListenableFuture<T> future;
+
+    try {
+      future = checkNotNull(
+          node.getNode().run(Arrays.asList(arguments), executor(state.executor())),
+          "node %s returned a null future", node.name());
+    } catch (Throwable t) {
+      finished();
+      return handleFailure(t);
+    }
+
+    return completeWith(future, false);
+  }
+
+  /**
+   * Completes the node with the result of an invocation by another run in the scope. The shared
+   * result is final, like that of a fallback: it isn't subject to this node's fallback or
+   * timeout.
+   */
+  @Nullable
+  private NodeFuture<?> completeShared(ListenableFuture<T> joined) {
+    notifyListener(Event.STARTED, null);
+    return completeWith(joined, true);
+  }
+
+  @Nullable
+  private NodeFuture<?> invokeSync(SyncTrickleNode<T> syncNode) {
+    final T value;
+
+    try {
+      value = syncNode.apply(Arrays.asList(arguments));
+    } catch (Throwable t) {
+      finished();
+      return handleFailure(t);
+    }
+
+    finished();
+    cache(value);
+    return succeed(value);
+  }
+
+  @Nullable
+  private NodeFuture<?> handleFailure(Throwable t) {
+    if (isAbandoned()) {
+      return null;
+    }
+
+    final Optional<AsyncFunction<Throwable, T>> fallback = node.getFallback();
+
+    if (!fallback.isPresent()) {
+      fail(t);
+      return null;
+    }
+
+    notifyListener(Event.FALLBACK_USED, t);
+
+    final ListenableFuture<T> future;
+    try {
+      future = checkNotNull(fallback.get().apply(t),
+                            "fallback for node %s returned a null future", node.name());
+    } catch (Exception e) {
+      fail(e);
+      return null;
+    }
+
+    return completeWith(future, true);
+  }
+
+  /**
+   * Completes this future with the result of the future returned by the node or by its fallback.
+   * Nodes frequently return futures that are already done; those are handled directly, without
+   * registering a listener.
+   */
+  @Nullable
+  private NodeFuture<?> completeWith(ListenableFuture<T> future, boolean isFallback) {
+    if (future.isDone()) {
+      return completed(future, isFallback);
+    }
+
+    inFlight = future;
+
+    // the run may have been cancelled before the future was published above; the listener added
+    // below still needs to see the future complete, to release the node's resources
+    if (isAbandoned()) {
+      future.cancel(wasInterrupted());
+    }
+
+    if (!isFallback && node.hasTimeout()) {
+      final TimedCompletion completion = new TimedCompletion(future, timeoutNanos());
+      completion.timeout = TimerWheel.shared().schedule(
+          completion.new Expiry(), completion.timeoutNanos, TimeUnit.NANOSECONDS);
+      future.addListener(completion, sameThreadExecutor());
+    } else {
+      future.addListener(new Completion(future, isFallback), sameThreadExecutor());
+    }
+
+    return null;
+  }
+
+  /**
+   * @return the node's timeout, shortened to the time left until the deadline of the run, if any
+   */
+  private long timeoutNanos() {
+    final Deadline deadline = state.deadline();
+
+    if (deadline == null) {
+      return node.getTimeoutNanos();
+    }
+
+    return Math.max(0, Math.min(node.getTimeoutNanos(), deadline.remainingNanos()));
+  }
+
+  /**
+   * Called when the node's own future has completed. Feeds the time since the node was invoked
+   * into its expected cost, in runs with a deadline, and releases its concurrency permit along
+   * with the latency, for adaptive limits.
+   */
+  private void finished() {
+    if (invokedAt == 0) {
+      releasePermit(-1);
+      return;
+    }
+
+    final long latency = System.nanoTime() - invokedAt;
+
+    if (state.deadline() != null) {
+      state.recordCost(slot, latency);
+    }
+
+    releasePermit(latency);
+  }
+
+  @Nullable
+  private NodeFuture<?> completed(ListenableFuture<T> future, boolean isFallback) {
+    if (!isFallback) {
+      finished();
+    }
+
+    final T value;
+
+    try {
+      value = getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      return completedExceptionally(e.getCause(), isFallback);
+    } catch (CancellationException e) {
+      return completedExceptionally(e, isFallback);
+    }
+
+    if (!isFallback) {
+      cache(value);
+    }
+
+    return succeed(value);
+  }
+
+  private void cache(@Nullable T value) {
+    if (node.getCache().isPresent()) {
+      node.getCache().get().put(Arrays.asList(arguments), value);
+    }
+  }
+
+  @Nullable
+  private NodeFuture<?> completedExceptionally(Throwable t, boolean isFallback) {
+    if (isFallback) {
+      fail(t);
+      return null;
+    }
+
+    return handleFailure(t);
+  }
+
+  @Nullable
+  private NodeFuture<?> succeed(@Nullable T value) {
+    final RunScope.SharedResult<T> result = shared;
+    if (result != null) {
+      result.set(value);
+    }
+
+    if (isCancelled()) {
+      return null;
+    }
+
+    notifyListener(Event.COMPLETED, null);
+    set(value);
+    return state.slotSucceeded(slot, value);
+  }
+
+  private void fail(Throwable t) {
+    final RunScope.SharedResult<T> result = shared;
+    if (result != null) {
+      result.setException(t);
+    }
+
+    if (isCancelled()) {
+      return;
+    }
+
+    notifyListener(Event.FAILED, t);
+    setException(t);
+    state.slotFailed(slot, t);
+  }
+
+  /**
+   * Cancels this future, along with the future returned by the node, if it is outstanding and no
+   * other run in the scope needs its result.
+   * Cancelling any node future cancels the whole run; the only one that callers have access to
+   * is the root node's.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!super.cancel(mayInterruptIfRunning)) {
+      return false;
+    }
+
+    // the future returned by a node whose result is shared is cancelled by the shared result
+    final ListenableFuture<?> future = inFlight;
+    if (future != null && shared == null) {
+      future.cancel(mayInterruptIfRunning);
+    }
+
+    state.cancel(mayInterruptIfRunning);
+    return true;
+  }
+
+  private void notifyListener(Event event, @Nullable Throwable t) {
+    final NodeListener listener = state.listener();
+
+    // a node that keeps going for other runs in its scope doesn't report to this one
+    if (listener == null || isCancelled()) {
+      return;
+    }
+
+    final long now = System.nanoTime();
+
+    try {
+      switch (event) {
+        case SCHEDULED:
+          listener.nodeScheduled(node, now);
+          break;
+        case STARTED:
+          listener.nodeStarted(node, now);
+          break;
+        case COMPLETED:
+          listener.nodeCompleted(node, now);
+          break;
+        case FAILED:
+          listener.nodeFailed(node, t, now);
+          break;
+        case FALLBACK_USED:
+          listener.fallbackUsed(node, t, now);
+          break;
+      }
+    } catch (RuntimeException e) {
+      // a misbehaving listener must not break the run
+    }
+  }
+
+  private enum Event {
+    SCHEDULED, STARTED, COMPLETED, FAILED, FALLBACK_USED
+  }
+
+  /**
+   * Listens to the future returned by the node or by its fallback.
+   */
+  private final class Completion implements Runnable {
+    private final ListenableFuture<T> future;
+    private final boolean isFallback;
+
+    private Completion(ListenableFuture<T> future, boolean isFallback) {
+      this.future = future;
+      this.isFallback = isFallback;
+    }
+
+    @Override
+    public void run() {
+      runChain(completed(future, isFallback));
+    }
+  }
+
+  /**
+   * Listens to the future returned by a node that has a timeout, racing it against the timer.
+   */
+  private final class TimedCompletion implements Runnable {
+    private final ListenableFuture<T> future;
+    private final long timeoutNanos;
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile TimerWheel.Timeout timeout;
+
+    private TimedCompletion(ListenableFuture<T> future, long timeoutNanos) {
+      this.future = future;
+      this.timeoutNanos = timeoutNanos;
+    }
+
+    @Override
+    public void run() {
+      if (done.compareAndSet(false, true)) {
+        // the timeout is always set before the listener is added, so it can't be null here
+        timeout.cancel();
+        runChain(completed(future, false));
+      }
+    }
+
+    /**
+     * Run by the timer thread when the timeout expires. The timer thread is shared by all runs,
+     * so it only claims the completion, and hands the timeout off to a pool of timeout handlers.
+     * From there, the timeout is handled on the node's executor, where the fallback and the
+     * nodes that depend on this one are then invoked; nodes that are run inline have no thread
+     * to go back to, so their timeouts are handled by the pool thread.
+     */
+    private final class Expiry implements Runnable {
+      @Override
+      public void run() {
+        if (!done.compareAndSet(false, true)) {
+          return;
+        }
+
+        final Runnable expired = new Runnable() {
+          @Override
+          public void run() {
+            future.cancel(false);
+            finished();
+            runChain(handleFailure(new TimeoutException(
+                "node " + node.name() + " timed out after "
+                + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms")));
+          }
+        };
+
+        final Runnable handOff = new Runnable() {
+          @Override
+          public void run() {
+            execute(executor(state.executor()), expired);
+          }
+        };
+
+        execute(TimeoutHandlers.EXECUTOR, handOff);
+      }
+    }
+  }
+
+  private static void execute(Executor executor, Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RuntimeException e) {
+      // the timeout must be handled, even if the executor refuses to do it
+      task.run();
+    }
+  }
+
+  private static final class TimeoutHandlers {
+    private static final Executor EXECUTOR = DaemonExecutors.newBoundedPool("trickle-timeout-%d");
+  }
+}
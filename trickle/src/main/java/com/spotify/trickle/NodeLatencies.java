@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Snapshots of the latencies of a node, as recorded by a {@link LatencyRecorder}. All times are
+ * measured from the point of view of a single run of a graph.
+ */
+public final class NodeLatencies {
+  private final LatencySnapshot dependencyWaitTime;
+  private final LatencySnapshot queueTime;
+  private final LatencySnapshot executionTime;
+  private final LatencySnapshot totalTime;
+
+  NodeLatencies(LatencySnapshot dependencyWaitTime,
+                LatencySnapshot queueTime,
+                LatencySnapshot executionTime,
+                LatencySnapshot totalTime) {
+    this.dependencyWaitTime = checkNotNull(dependencyWaitTime, "dependencyWaitTime");
+    this.queueTime = checkNotNull(queueTime, "queueTime");
+    this.executionTime = checkNotNull(executionTime, "executionTime");
+    this.totalTime = checkNotNull(totalTime, "totalTime");
+  }
+
+  /**
+   * @return the time from the start of the run until the node's dependencies had completed
+   */
+  public LatencySnapshot dependencyWaitTime() {
+    return dependencyWaitTime;
+  }
+
+  /**
+   * @return the time from the node's dependencies completing until it was started by the executor
+   */
+  public LatencySnapshot queueTime() {
+    return queueTime;
+  }
+
+  /**
+   * @return the time from the node being started until its result - or that of its fallback - was
+   * available
+   */
+  public LatencySnapshot executionTime() {
+    return executionTime;
+  }
+
+  /**
+   * @return the time from the start of the run until the node's result was available
+   */
+  public LatencySnapshot totalTime() {
+    return totalTime;
+  }
+
+  @Override
+  public String toString() {
+    return "NodeLatencies{dependencyWaitTime=" + dependencyWaitTime + ", queueTime=" + queueTime
+           + ", executionTime=" + executionTime + ", totalTime=" + totalTime + '}';
+  }
+}
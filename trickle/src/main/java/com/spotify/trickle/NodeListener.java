@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+/**
+ * Receives notifications about the nodes in a single run of a graph. All times are given as
+ * values of {@link System#nanoTime()}.
+ *
+ * A node that is invoked is first scheduled, when all its dependencies have completed, and then
+ * started, when it is invoked by the executor of the run; the time between the two is the time
+ * spent waiting for the executor. It then either completes or fails. If it has a fallback that
+ * is used, the node is reported as completed or failed depending on the outcome of the fallback.
+ * A node whose dependency failed is never scheduled; it is reported as failed, unless it has a
+ * fallback.
+ *
+ * @see GraphListener
+ */
+public interface NodeListener {
+  void nodeScheduled(NodeInfo node, long nanoTime);
+
+  void nodeStarted(NodeInfo node, long nanoTime);
+
+  void nodeCompleted(NodeInfo node, long nanoTime);
+
+  void nodeFailed(NodeInfo node, Throwable t, long nanoTime);
+
+  /**
+   * Called when the fallback of a node is invoked because the node, or one of its dependencies,
+   * failed.
+   */
+  void fallbackUsed(NodeInfo node, Throwable t, long nanoTime);
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The trace of a single node in a traced run of a graph. Times are given in nanoseconds since
+ * the start of the run, or as -1 if the event never happened - for instance, if a dependency of
+ * the node failed. The dependencies of the node are available as traces too; nodes that are
+ * dependencies of more than one node are represented by the same instance.
+ *
+ * @see Graph#runTraced(java.util.concurrent.Executor)
+ */
+public final class NodeTrace {
+  private final NodeInfo node;
+  private final long scheduled;
+  private final long started;
+  private final long finished;
+  private final boolean failed;
+  private ImmutableList<NodeTrace> arguments;
+  private ImmutableList<NodeTrace> predecessors;
+
+  NodeTrace(NodeInfo node, long scheduled, long started, long finished, boolean failed) {
+    this.node = checkNotNull(node, "node");
+    this.scheduled = scheduled;
+    this.started = started;
+    this.finished = finished;
+    this.failed = failed;
+  }
+
+  // called once while the trace is being assembled, before it is published
+  void setDependencies(ImmutableList<NodeTrace> arguments, ImmutableList<NodeTrace> predecessors) {
+    this.arguments = checkNotNull(arguments, "arguments");
+    this.predecessors = checkNotNull(predecessors, "predecessors");
+  }
+
+  public NodeInfo node() {
+    return node;
+  }
+
+  /**
+   * @return the time at which all the node's dependencies had completed
+   */
+  public long scheduledNanos() {
+    return scheduled;
+  }
+
+  /**
+   * @return the time at which the node was invoked
+   */
+  public long startedNanos() {
+    return started;
+  }
+
+  /**
+   * @return the time at which the node's result, or failure, was available
+   */
+  public long finishedNanos() {
+    return finished;
+  }
+
+  public boolean failed() {
+    return failed;
+  }
+
+  /**
+   * @return the traces of the nodes whose values are arguments to this node, in argument order.
+   * Arguments that are inputs are not included.
+   */
+  public List<NodeTrace> arguments() {
+    return arguments;
+  }
+
+  /**
+   * @return the traces of the node's predecessors
+   */
+  public List<NodeTrace> predecessors() {
+    return predecessors;
+  }
+
+  @Override
+  public String toString() {
+    return node.name() + " [scheduled=" + scheduled + ", started=" + started
+           + ", finished=" + finished + (failed ? ", failed" : "") + ']';
+  }
+}
@@ -16,25 +16,16 @@
 
 package com.spotify.trickle;
 
-import com.google.common.base.Function;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.AsyncFunction;
-import com.google.common.util.concurrent.FutureFallback;
-import com.google.common.util.concurrent.Futures;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
 import java.util.concurrent.Executor;
 
-import static com.google.common.base.Preconditions.checkArgument;
+import javax.annotation.Nullable;
+
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.ImmutableList.builder;
-import static com.google.common.util.concurrent.Futures.allAsList;
-import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
-import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 
 /**
  * A decorator class for Graph that holds bound values for input names thus making
@@ -48,15 +39,27 @@ import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor
 final class PreparedGraph<R> extends Graph<R> {
 
   private final GraphBuilder<R> graph;
-  private final ImmutableMap<Input<?>, Object> inputBindings;
-
-  private PreparedGraph(GraphBuilder<R> graph, ImmutableMap<Input<?>, Object> inputBindings) {
+  private final Bindings inputBindings;
+  @Nullable
+  private final GraphListener listener;
+  private final boolean failFast;
+  @Nullable
+  private final RunScope scope;
+
+  private PreparedGraph(GraphBuilder<R> graph,
+                        Bindings inputBindings,
+                        @Nullable GraphListener listener,
+                        boolean failFast,
+                        @Nullable RunScope scope) {
     this.graph = checkNotNull(graph, "graph");
     this.inputBindings = checkNotNull(inputBindings, "inputBindings");
+    this.listener = listener;
+    this.failFast = failFast;
+    this.scope = scope;
   }
 
   PreparedGraph(GraphBuilder<R> graph) {
-    this(graph, ImmutableMap.<Input<?>, Object>of());
+    this(graph, Bindings.of(), null, false, null);
   }
 
   @Override
@@ -70,87 +73,81 @@ final class PreparedGraph<R> extends Graph<R> {
   }
 
   @Override
-  public ListenableFuture<R> run() {
-    return run(sameThreadExecutor());
+  public Graph<R> bindAll(Bindings bindings) {
+    return new PreparedGraph<R>(graph, inputBindings.withAll(bindings), listener, failFast,
+                                scope);
   }
 
   @Override
-  public ListenableFuture<R> run(Executor executor) {
-    return run(TraverseState.empty(executor));
+  public Graph<R> withListener(GraphListener listener) {
+    return new PreparedGraph<R>(
+        graph, inputBindings, checkNotNull(listener, "listener"), failFast, scope);
   }
 
   @Override
-  ListenableFuture<R> run(TraverseState state) {
-    state.addBindings(inputBindings);
-    return future(state);
+  public Graph<R> failFast() {
+    return new PreparedGraph<R>(graph, inputBindings, listener, true, scope);
   }
 
-  private ListenableFuture<R> future(final TraverseState state) {
-    final ImmutableList.Builder<ListenableFuture<?>> futuresListBuilder = builder();
-
-    // get node and value dependencies
-    for (Dep<?> input : graph.getInputs()) {
-      final ListenableFuture<?> inputFuture = input.getFuture(state);
-      futuresListBuilder.add(inputFuture);
-    }
+  @Override
+  public Graph<R> withScope(RunScope scope) {
+    return new PreparedGraph<R>(
+        graph, inputBindings, listener, failFast, checkNotNull(scope, "scope"));
+  }
 
-    final ImmutableList<ListenableFuture<?>> futures = futuresListBuilder.build();
+  @Override
+  public Optional<CacheStats> cacheStats() {
+    return graph.cacheStats();
+  }
 
-    // future for signaling propagation - needs to include predecessors, too
-    List<ListenableFuture<?>> mustHappenBefore = Lists.newArrayList(futures);
-    for (Graph<?> predecessor : graph.getPredecessors()) {
-      mustHappenBefore.add(state.futureForGraph(predecessor));
-    }
+  @Override
+  public Graph<R> compile() {
+    // the plan is cached by the root node, so compiling it eagerly is all that's needed
+    graph.getPlan();
+    return this;
+  }
 
-    final ListenableFuture<List<Object>> allFuture = allAsList(mustHappenBefore);
+  @Override
+  public ListenableFuture<R> run() {
+    return run(TraverseState.SAME_THREAD_EXECUTOR);
+  }
 
-    checkArgument(graph.getInputs().size() == futures.size(), "sanity check result: insane");
+  @Override
+  public ListenableFuture<R> run(Executor executor) {
+    return graph.getPlan().run(inputBindings, executor, listener, null, failFast, scope);
+  }
 
-    return Futures.withFallback(
-        nodeFuture(futures, allFuture, state.getExecutor()), new FutureFallback<R>() {
-      @Override
-      public ListenableFuture<R> create(Throwable t) {
-        if (graph.getFallback().isPresent()) {
-          try {
-            return graph.getFallback().get().apply(t);
-          } catch (Exception e) {
-            return immediateFailedFuture(e);
-          }
-        }
+  @Override
+  public ListenableFuture<R> run(Executor executor, Deadline deadline) {
+    checkNotNull(deadline, "deadline");
+    return graph.getPlan().run(inputBindings, executor, listener, deadline, failFast, scope);
+  }
 
-        return immediateFailedFuture(t);
-      }
-    });
+  @Override
+  public ListenableFuture<TracedRun<R>> runTraced() {
+    return runTraced(TraverseState.SAME_THREAD_EXECUTOR);
   }
 
-  private ListenableFuture<R> nodeFuture(final ImmutableList<ListenableFuture<?>> values,
-                                         final ListenableFuture<List<Object>> doneSignal,
-                                         final Executor executor) {
-    return Futures.transform(
-        doneSignal,
-        new AsyncFunction<List<Object>, R>() {
-          @Override
-          public ListenableFuture<R> apply(List<Object> input) {
-            return graph.getNode().run(Lists.transform(values, new Function<ListenableFuture<?>, Object>() {
-              @Override
-              public Object apply(ListenableFuture<?> input) {
-                return Futures.getUnchecked(input);
-              }
-            }));
-          }
-        },
-        executor);
+  @Override
+  public ListenableFuture<TracedRun<R>> runTraced(Executor executor) {
+    final ExecutionPlan<R> plan = graph.getPlan();
+    final TraceCollector collector = new TraceCollector(plan, listener);
+
+    return collector.traced(
+        plan.run(inputBindings, executor, collector, null, failFast, scope));
   }
 
   private PreparedGraph<R> addToInputs(Input<?> input, Object value) {
-    checkState(!inputBindings.containsKey(input), "Duplicate binding for input: " + input);
+    return new PreparedGraph<R>(graph, inputBindings.with(input, value), listener, failFast,
+                                scope);
+  }
 
-    return new PreparedGraph<R>(
-        graph,
-        ImmutableMap.<Input<?>, Object>builder()
-          .putAll(inputBindings)
-          .put(input, value)
-          .build());
+  GraphBuilder<R> getGraph() {
+    return graph;
+  }
+
+  Bindings getInputBindings() {
+    return inputBindings;
   }
 
   @Override
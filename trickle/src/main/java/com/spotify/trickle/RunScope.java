@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * A scope in which several runs, of the same or of different graphs, share the results of the
+ * nodes they have in common. Typically, a scope is created for each incoming request, and all
+ * graphs run to handle the request are run in it; a subgraph shared by several of those graphs,
+ * such as one that fetches a user's profile, is then only run once.
+ *
+ * A node is shared when it is invoked with the same argument values in more than one run in the
+ * scope: the first run to get to it invokes it, and the others use its result, including
+ * fallback results and failures. A run that doesn't get to invoke the node, because its
+ * concurrency limiter rejects it or because the run's deadline is too close, doesn't share that
+ * failure: the next run invokes the node itself. Cancelling one of the runs doesn't affect the
+ * others: the node is only cancelled once every run that uses its result has been cancelled.
+ *
+ * Scopes are thread safe, so runs in a scope may overlap in time. Results are held on to for as
+ * long as the scope is, so scopes should be short-lived.
+ *
+ * @see Graph#withScope(RunScope)
+ */
+public final class RunScope {
+  private final ConcurrentMap<Key, SharedResult<?>> results =
+      new ConcurrentHashMap<Key, SharedResult<?>>();
+
+  private RunScope() {
+  }
+
+  public static RunScope create() {
+    return new RunScope();
+  }
+
+  /**
+   * Looks up the result of an earlier invocation of a node in the scope, without registering an
+   * invocation of its own.
+   *
+   * @param node  the node about to be invoked
+   * @param arguments  the argument values it is to be invoked with
+   * @return a copy of the result of an earlier invocation with the same arguments in this scope,
+   * or null if there is none that is still in use
+   */
+  @Nullable
+  <T> ListenableFuture<T> lookup(GraphBuilder<T> node, Object[] arguments) {
+    checkNotNull(node, "node");
+    checkNotNull(arguments, "arguments");
+
+    final SharedResult<?> existing = results.get(new Key(node, Arrays.asList(arguments)));
+
+    // the key guarantees that the result is for the same node, and thus of the same type
+    //noinspection unchecked
+    return existing == null ? null : ((SharedResult<T>) existing).join();
+  }
+
+  /**
+   * Registers a node invocation in the scope.
+   *
+   * @param node  the node being invoked
+   * @param arguments  the argument values it is invoked with
+   * @param result  the shared result to publish the outcome of the invocation to, if it is the
+   *                first with these arguments
+   * @return a copy of the result of an earlier invocation with the same arguments in this scope,
+   * or null if there was none, meaning that the node should be invoked
+   */
+  @Nullable
+  <T> ListenableFuture<T> join(GraphBuilder<T> node, Object[] arguments, SharedResult<T> result) {
+    checkNotNull(node, "node");
+    checkNotNull(arguments, "arguments");
+    checkNotNull(result, "result");
+
+    final Key key = new Key(node, Arrays.asList(arguments.clone()));
+
+    while (true) {
+      final SharedResult<?> existing = results.putIfAbsent(key, result);
+
+      if (existing == null) {
+        return null;
+      }
+
+      // the key guarantees that the result is for the same node, and thus of the same type
+      //noinspection unchecked
+      final ListenableFuture<T> joined = ((SharedResult<T>) existing).join();
+
+      if (joined != null) {
+        return joined;
+      }
+
+      // all runs using the existing result have been cancelled, so it has been, too
+      if (results.replace(key, existing, result)) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * The result of a node invocation that is shared by the runs in a scope. It counts the runs
+   * that use it - the one that invokes the node, and those that join it - and is cancelled once
+   * all of them have been.
+   */
+  static final class SharedResult<T> {
+    private final SettableFuture<T> future = SettableFuture.create();
+    private final AtomicInteger runs = new AtomicInteger(1);
+
+    /**
+     * @return a copy of the result that can be cancelled without affecting other runs, or null
+     * if the result has already been cancelled
+     */
+    @Nullable
+    private ListenableFuture<T> join() {
+      int current;
+
+      do {
+        current = runs.get();
+
+        if (current == 0) {
+          return null;
+        }
+      } while (!runs.compareAndSet(current, current + 1));
+
+      final ListenableFuture<T> copy = MoreFutures.copyOf(future);
+
+      copy.addListener(new Runnable() {
+        @Override
+        public void run() {
+          if (copy.isCancelled()) {
+            leave();
+          }
+        }
+      }, sameThreadExecutor());
+
+      return copy;
+    }
+
+    /**
+     * Signals that a run using the result has been cancelled.
+     */
+    void leave() {
+      if (runs.decrementAndGet() == 0) {
+        future.cancel(false);
+      }
+    }
+
+    /**
+     * @return true if all runs using the result have been cancelled
+     */
+    boolean isCancelled() {
+      return future.isCancelled();
+    }
+
+    /**
+     * Registers a listener to run when the result completes, including when it is cancelled.
+     */
+    void addListener(Runnable listener) {
+      future.addListener(listener, sameThreadExecutor());
+    }
+
+    void set(@Nullable T value) {
+      future.set(value);
+    }
+
+    void setException(Throwable t) {
+      future.setException(t);
+    }
+  }
+
+  private static final class Key {
+    private final GraphBuilder<?> node;
+    private final List<Object> arguments;
+
+    private Key(GraphBuilder<?> node, List<Object> arguments) {
+      this.node = node;
+      this.arguments = arguments;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      final Key other = (Key) o;
+      return node == other.node && arguments.equals(other.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(node) + arguments.hashCode();
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A histogram of non-negative values that many threads can record into concurrently without
+ * contending with each other. Counts are kept in a number of stripes, and each thread records
+ * into the stripe picked by its id; stripes are allocated the first time they are used.
+ *
+ * Buckets are log-linear: each power of two is split into {@value #SUB_BUCKETS} equally wide
+ * buckets, so values are kept with a relative precision of about 6%. Values larger than
+ * {@code 2^}{@value #MAX_EXPONENT} are recorded as that value.
+ */
+final class StripedHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 40;
+  private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+  private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+  private final AtomicReferenceArray<AtomicLongArray> stripes;
+  private final int stripeMask;
+
+  StripedHistogram(int stripeCount) {
+    checkArgument(Integer.bitCount(stripeCount) == 1,
+                  "stripeCount must be a power of two: %s", stripeCount);
+
+    this.stripes = new AtomicReferenceArray<AtomicLongArray>(stripeCount);
+    this.stripeMask = stripeCount - 1;
+  }
+
+  void record(long value) {
+    checkArgument(value >= 0, "value must be non-negative: %s", value);
+
+    stripe().incrementAndGet(bucketIndex(Math.min(value, MAX_VALUE)));
+  }
+
+  private AtomicLongArray stripe() {
+    final int index = (int) Thread.currentThread().getId() & stripeMask;
+    final AtomicLongArray stripe = stripes.get(index);
+
+    if (stripe != null) {
+      return stripe;
+    }
+
+    stripes.compareAndSet(index, null, new AtomicLongArray(BUCKETS));
+    return stripes.get(index);
+  }
+
+  /**
+   * Sums the stripes into a snapshot. Values recorded while the snapshot is being taken may or
+   * may not be included.
+   */
+  LatencySnapshot snapshot() {
+    final long[] counts = new long[BUCKETS];
+
+    for (int i = 0; i < stripes.length(); i++) {
+      final AtomicLongArray stripe = stripes.get(i);
+
+      if (stripe != null) {
+        for (int j = 0; j < BUCKETS; j++) {
+          counts[j] += stripe.get(j);
+        }
+      }
+    }
+
+    return new LatencySnapshot(counts);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return the highest value that is recorded in the bucket
+   */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+
+    final int shift = index / SUB_BUCKETS - 1;
+    final long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+
+    return lowerBound + (1L << shift) - 1;
+  }
+}
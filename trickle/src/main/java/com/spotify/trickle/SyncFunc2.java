@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+/**
+ * Synchronous code that has inputs of type A and B, and returns a value of type R. Use this
+ * instead of {@link Func2} for nodes that compute their result directly; the value doesn't need
+ * to be wrapped in a future, and Trickle can invoke the node with less overhead.
+ *
+ * Implementations must not block, since they may be invoked on the thread that completed the
+ * node's dependencies.
+ */
+public interface SyncFunc2<A, B, R> extends Func<R> {
+  R run(A arg1, B arg2);
+}
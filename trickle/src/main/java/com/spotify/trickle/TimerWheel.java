@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hashed timer wheel, for running large numbers of short-lived timeouts cheaply. Scheduling a
+ * timeout amounts to adding it to a lock-free queue, and cancelling it to a compare-and-set;
+ * a single worker thread moves new timeouts into the wheel and expires them, at the granularity
+ * of one tick. Timeouts are thus run up to one tick late.
+ *
+ * The wheel is an array of buckets. A timeout is put in the bucket for the tick at which it
+ * expires, modulo the size of the wheel, along with the number of full rotations that remain
+ * before it expires. Cancelled timeouts are removed when the worker next passes their bucket.
+ *
+ * Tasks are run on the worker thread, so they must be quick and must not block.
+ */
+final class TimerWheel {
+  private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private final long tickNanos;
+  private final Timeout[] wheel;
+  private final int mask;
+  private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+  private final long startTime;
+  private final Thread worker;
+
+  private volatile boolean stopped;
+
+  TimerWheel(long tick, TimeUnit unit, int wheelSize, String threadName) {
+    checkArgument(tick > 0, "tick must be positive: %s", tick);
+    checkArgument(Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two: %s",
+                  wheelSize);
+    checkNotNull(unit, "unit");
+    checkNotNull(threadName, "threadName");
+
+    this.tickNanos = unit.toNanos(tick);
+    this.wheel = new Timeout[wheelSize];
+    this.mask = wheelSize - 1;
+    this.startTime = System.nanoTime();
+    this.worker = new Thread(new Worker(), threadName);
+
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * @return the timer wheel shared by all graphs, which is created when first used
+   */
+  static TimerWheel shared() {
+    return Shared.INSTANCE;
+  }
+
+  /**
+   * Schedules a task to run once the delay has passed.
+   *
+   * @return a handle that can be used to cancel the task
+   */
+  Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    checkNotNull(task, "task");
+    checkNotNull(unit, "unit");
+
+    final Timeout timeout = new Timeout(task, System.nanoTime() - startTime + unit.toNanos(delay));
+    newTimeouts.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stops the worker thread. Pending timeouts are never run.
+   */
+  void stop() {
+    stopped = true;
+    worker.interrupt();
+  }
+
+  private static final class Shared {
+    private static final TimerWheel INSTANCE =
+        new TimerWheel(DEFAULT_TICK_NANOS, TimeUnit.NANOSECONDS, DEFAULT_WHEEL_SIZE,
+                       "trickle-timer");
+  }
+
+  /**
+   * A scheduled task.
+   */
+  static final class Timeout {
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+        AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final Runnable task;
+    private final long deadline;
+
+    // only accessed by the worker thread
+    private long remainingRounds;
+    private Timeout next;
+
+    private volatile int state;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    /**
+     * Cancels the timeout, unless it has already run.
+     *
+     * @return true if the timeout was cancelled by this call
+     */
+    boolean cancel() {
+      return STATE.compareAndSet(this, PENDING, CANCELLED);
+    }
+
+    boolean isCancelled() {
+      return state == CANCELLED;
+    }
+
+    private void expire() {
+      if (STATE.compareAndSet(this, PENDING, EXPIRED)) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          // don't let a failing task kill the worker
+        }
+      }
+    }
+  }
+
+  private final class Worker implements Runnable {
+    private long tick;
+
+    @Override
+    public void run() {
+      while (!stopped) {
+        waitForNextTick();
+        transferNewTimeouts();
+        expireBucket((int) (tick & mask));
+        tick++;
+      }
+    }
+
+    private void waitForNextTick() {
+      final long deadline = startTime + tickNanos * (tick + 1);
+
+      for (long remaining = deadline - System.nanoTime();
+           remaining > 0 && !stopped;
+           remaining = deadline - System.nanoTime()) {
+        LockSupport.parkNanos(remaining);
+      }
+    }
+
+    private void transferNewTimeouts() {
+      for (Timeout timeout = newTimeouts.poll(); timeout != null; timeout = newTimeouts.poll()) {
+        if (timeout.isCancelled()) {
+          continue;
+        }
+
+        // timeouts that are already due go in the current bucket, which is processed next
+        final long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+        final int bucket = (int) (expiryTick & mask);
+
+        timeout.remainingRounds = (expiryTick - tick) / wheel.length;
+        timeout.next = wheel[bucket];
+        wheel[bucket] = timeout;
+      }
+    }
+
+    private void expireBucket(int bucket) {
+      Timeout previous = null;
+      Timeout timeout = wheel[bucket];
+
+      while (timeout != null) {
+        final Timeout next = timeout.next;
+        final boolean remove;
+
+        if (timeout.isCancelled()) {
+          remove = true;
+        } else if (timeout.remainingRounds <= 0) {
+          timeout.expire();
+          remove = true;
+        } else {
+          timeout.remainingRounds--;
+          remove = false;
+        }
+
+        if (remove) {
+          if (previous == null) {
+            wheel[bucket] = next;
+          } else {
+            previous.next = next;
+          }
+          timeout.next = null;
+        } else {
+          previous = timeout;
+        }
+
+        timeout = next;
+      }
+    }
+  }
+}
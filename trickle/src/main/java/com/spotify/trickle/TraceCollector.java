@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newIdentityHashMap;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
+/**
+ * Collects the times of node events in a single traced run, and assembles them into a
+ * {@link TracedRun} when the run completes. Events are also passed on to the listener attached
+ * to the graph, if any.
+ */
+final class TraceCollector implements GraphListener, NodeListener {
+  private static final long NEVER = -1;
+
+  private final ExecutionPlan<?> plan;
+  private final Map<NodeInfo, Integer> indices = newIdentityHashMap();
+  private final long[] scheduled;
+  private final long[] started;
+  private final long[] finished;
+  private final boolean[] failed;
+  @Nullable
+  private final GraphListener delegate;
+
+  private long runStarted;
+  @Nullable
+  private NodeListener delegateNodeListener;
+
+  TraceCollector(ExecutionPlan<?> plan, @Nullable GraphListener delegate) {
+    this.plan = checkNotNull(plan, "plan");
+    this.delegate = delegate;
+
+    for (int i = 0; i < plan.nodeCount(); i++) {
+      indices.put(plan.node(i), i);
+    }
+
+    scheduled = newTimes(plan.nodeCount());
+    started = newTimes(plan.nodeCount());
+    finished = newTimes(plan.nodeCount());
+    failed = new boolean[plan.nodeCount()];
+  }
+
+  private static long[] newTimes(int count) {
+    final long[] result = new long[count];
+    Arrays.fill(result, NEVER);
+    return result;
+  }
+
+  /**
+   * @return a future that completes with the traced run once the result has completed
+   */
+  <R> ListenableFuture<TracedRun<R>> traced(final ListenableFuture<R> result) {
+    final SettableFuture<TracedRun<R>> traced = SettableFuture.create();
+
+    result.addListener(new Runnable() {
+      @Override
+      public void run() {
+        traced.set(new TracedRun<R>(result, buildTrace()));
+      }
+    }, sameThreadExecutor());
+    traced.addListener(new Runnable() {
+      @Override
+      public void run() {
+        if (traced.isCancelled()) {
+          result.cancel(false);
+        }
+      }
+    }, sameThreadExecutor());
+
+    return traced;
+  }
+
+  private synchronized NodeTrace buildTrace() {
+    final NodeTrace[] traces = new NodeTrace[plan.nodeCount()];
+    final int inputCount = plan.inputCount();
+
+    // nodes are in topological order, so dependencies are always created first
+    for (int i = 0; i < traces.length; i++) {
+      traces[i] = new NodeTrace(plan.node(i), scheduled[i], started[i], finished[i], failed[i]);
+      traces[i].setDependencies(traces(traces, plan.argumentSlots(i), inputCount),
+                                traces(traces, plan.predecessorSlots(i), inputCount));
+    }
+
+    return traces[traces.length - 1];
+  }
+
+  private static ImmutableList<NodeTrace> traces(NodeTrace[] traces, int[] slots, int inputCount) {
+    final ImmutableList.Builder<NodeTrace> result = ImmutableList.builder();
+
+    for (int slot : slots) {
+      if (slot >= inputCount) {
+        result.add(traces[slot - inputCount]);
+      }
+    }
+
+    return result.build();
+  }
+
+  @Override
+  public NodeListener runStarted(NodeInfo graph, long nanoTime) {
+    checkNotNull(graph, "graph");
+
+    synchronized (this) {
+      runStarted = nanoTime;
+    }
+
+    if (delegate != null) {
+      try {
+        delegateNodeListener = delegate.runStarted(graph, nanoTime);
+      } catch (RuntimeException e) {
+        // a misbehaving listener must not break the trace
+      }
+    }
+
+    return this;
+  }
+
+  @Override
+  public void nodeScheduled(NodeInfo node, long nanoTime) {
+    record(scheduled, node, nanoTime);
+
+    if (delegateNodeListener != null) {
+      delegateNodeListener.nodeScheduled(node, nanoTime);
+    }
+  }
+
+  @Override
+  public void nodeStarted(NodeInfo node, long nanoTime) {
+    record(started, node, nanoTime);
+
+    if (delegateNodeListener != null) {
+      delegateNodeListener.nodeStarted(node, nanoTime);
+    }
+  }
+
+  @Override
+  public void nodeCompleted(NodeInfo node, long nanoTime) {
+    record(finished, node, nanoTime);
+
+    if (delegateNodeListener != null) {
+      delegateNodeListener.nodeCompleted(node, nanoTime);
+    }
+  }
+
+  @Override
+  public void nodeFailed(NodeInfo node, Throwable t, long nanoTime) {
+    checkNotNull(t, "t");
+
+    synchronized (this) {
+      failed[indices.get(node)] = true;
+    }
+    record(finished, node, nanoTime);
+
+    if (delegateNodeListener != null) {
+      delegateNodeListener.nodeFailed(node, t, nanoTime);
+    }
+  }
+
+  @Override
+  public void fallbackUsed(NodeInfo node, Throwable t, long nanoTime) {
+    checkNotNull(node, "node");
+    checkNotNull(t, "t");
+
+    if (delegateNodeListener != null) {
+      delegateNodeListener.fallbackUsed(node, t, nanoTime);
+    }
+  }
+
+  private synchronized void record(long[] times, NodeInfo node, long nanoTime) {
+    times[indices.get(node)] = nanoTime - runStarted;
+  }
+}
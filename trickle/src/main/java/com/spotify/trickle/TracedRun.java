@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Sets.newIdentityHashSet;
+
+/**
+ * The outcome of a traced run of a graph: the result, along with a trace of when each node was
+ * scheduled, started and finished. The critical path is the chain of nodes that determined the
+ * end-to-end latency of the run: starting from the root, it follows the dependency that finished
+ * last, since that is the one that the node had to wait for.
+ *
+ * @param <T> the type of the result of the graph
+ */
+public final class TracedRun<T> {
+  private final ListenableFuture<T> result;
+  private final NodeTrace root;
+  private final ImmutableList<NodeTrace> criticalPath;
+
+  TracedRun(ListenableFuture<T> result, NodeTrace root) {
+    this.result = checkNotNull(result, "result");
+    this.root = checkNotNull(root, "root");
+    this.criticalPath = criticalPath(root);
+  }
+
+  /**
+   * @return the completed future holding the result of the run
+   */
+  public ListenableFuture<T> result() {
+    return result;
+  }
+
+  /**
+   * @return the trace of the root node of the graph
+   */
+  public NodeTrace root() {
+    return root;
+  }
+
+  /**
+   * @return the nodes on the critical path, starting with the one that started the chain and
+   * ending with the root node
+   */
+  public ImmutableList<NodeTrace> criticalPath() {
+    return criticalPath;
+  }
+
+  private static ImmutableList<NodeTrace> criticalPath(NodeTrace root) {
+    final ImmutableList.Builder<NodeTrace> path = ImmutableList.builder();
+    NodeTrace current = root;
+
+    while (current != null) {
+      path.add(current);
+      current = lastToFinish(current);
+    }
+
+    return path.build().reverse();
+  }
+
+  private static NodeTrace lastToFinish(NodeTrace node) {
+    NodeTrace result = null;
+
+    for (NodeTrace dependency : node.arguments()) {
+      result = laterOf(result, dependency);
+    }
+    for (NodeTrace dependency : node.predecessors()) {
+      result = laterOf(result, dependency);
+    }
+
+    return result;
+  }
+
+  private static NodeTrace laterOf(NodeTrace current, NodeTrace candidate) {
+    if (candidate.finishedNanos() < 0) {
+      return current;
+    }
+    if (current == null || candidate.finishedNanos() > current.finishedNanos()) {
+      return candidate;
+    }
+    return current;
+  }
+
+  /**
+   * Renders the trace as an indented tree, with the nodes on the critical path marked with '*'.
+   */
+  @Override
+  public String toString() {
+    final StringBuilder result = new StringBuilder();
+    final Set<NodeTrace> critical = newIdentityHashSet();
+    final Set<NodeTrace> printed = newIdentityHashSet();
+    final Deque<NodeTrace> nodes = new ArrayDeque<NodeTrace>();
+    final Deque<Integer> depths = new ArrayDeque<Integer>();
+
+    critical.addAll(criticalPath);
+    nodes.push(root);
+    depths.push(0);
+
+    while (!nodes.isEmpty()) {
+      final NodeTrace node = nodes.pop();
+      final int depth = depths.pop();
+
+      for (int i = 0; i < depth; i++) {
+        result.append("  ");
+      }
+      result.append(critical.contains(node) ? "* " : "  ").append(node);
+
+      if (!printed.add(node)) {
+        // already printed, along with its dependencies
+        result.append(" (see above)\n");
+        continue;
+      }
+
+      result.append('\n');
+
+      // pushed in reverse, so that they are printed in order
+      for (NodeTrace predecessor : Lists.reverse(node.predecessors())) {
+        nodes.push(predecessor);
+        depths.push(depth + 1);
+      }
+      for (NodeTrace argument : Lists.reverse(node.arguments())) {
+        nodes.push(argument);
+        depths.push(depth + 1);
+      }
+    }
+
+    return result.toString();
+  }
+}
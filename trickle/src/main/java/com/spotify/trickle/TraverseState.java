@@ -16,80 +16,337 @@
 
 package com.spotify.trickle;
 
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 
-import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
+/**
+ * Holds the state of a single run of an {@link ExecutionPlan}: a {@link NodeFuture} for each
+ * node in the plan, and a work-list through which all node invocations are dispatched.
+ *
+ * When a slot - an input or a node - completes, its value is handed directly to the nodes that
+ * consume it, as listed in the plan. A node that has received all its values is put on the
+ * work-list. If node invocations were dispatched directly from completion callbacks, completing
+ * one node would recursively invoke the next, and the stack depth would grow with the depth of
+ * the graph. Instead, a dispatch that happens while another one is in progress is handled by
+ * the loop that is already running, which keeps the stack depth constant.
+ *
+ * Nodes that the plan has fused with their producer are not put on the work-list; instead, they
+ * are invoked by the task that ran the producer. Inputs are never fused with their consumers.
+ *
+ * Nodes are invoked on the executor of the run, unless they have been configured with one of
+ * their own.
+ */
 class TraverseState {
-  private final Map<Input<?>, Object> bindings;
-  private final Map<Graph<?>, ListenableFuture<?>> visited = newHashMap();
+  /**
+   * The executor used when none is supplied. Nodes are then invoked directly by the work-list
+   * loop instead of being passed to the executor, which avoids the bookkeeping that
+   * {@link com.google.common.util.concurrent.MoreExecutors#sameThreadExecutor()} does per task.
+   */
+  static final Executor SAME_THREAD_EXECUTOR = sameThreadExecutor();
+
+  private final ExecutionPlan<?> plan;
   private final Executor executor;
+  @Nullable
+  private final NodeListener listener;
+  @Nullable
+  private final Deadline deadline;
+  private final boolean failFast;
+  @Nullable
+  private final RunScope scope;
+  private final NodeFuture<?>[] nodes;
+  private final Queue<NodeFuture<?>> workList = new ConcurrentLinkedQueue<NodeFuture<?>>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private volatile boolean cancelled;
 
-  TraverseState(Map<Input<?>, Object> bindings, Executor executor) {
-    this.bindings = checkNotNull(bindings, "bindings");
+  TraverseState(ExecutionPlan<?> plan,
+                Executor executor,
+                @Nullable NodeListener listener,
+                @Nullable Deadline deadline,
+                boolean failFast,
+                @Nullable RunScope scope) {
+    this.plan = checkNotNull(plan, "plan");
     this.executor = checkNotNull(executor, "executor");
+    this.listener = listener;
+    this.deadline = deadline;
+    this.failFast = failFast;
+    this.scope = scope;
+    this.nodes = new NodeFuture<?>[plan.nodeCount()];
+
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = nodeFuture(plan.node(i), plan.inputCount() + i, plan.dependencyCount(i));
+    }
   }
 
-  <T> T getBinding(Input<T> input) {
-    checkNotNull(input, "input");
+  private <T> NodeFuture<T> nodeFuture(GraphBuilder<T> node, int slot, int dependencyCount) {
+    return new NodeFuture<T>(this, slot, node, dependencyCount);
+  }
 
-    // this cast is fine because the API enforces it
-    //noinspection unchecked
-    return (T) bindings.get(input);
+  /**
+   * @return the executor of this run
+   */
+  Executor executor() {
+    return executor;
   }
 
-  <T> ListenableFuture<T> futureForGraph(Graph<T> graph) {
-    checkNotNull(graph, "node");
-    final ListenableFuture<T> future;
+  /**
+   * @return the listener to notify about nodes in this run, or null
+   */
+  @Nullable
+  NodeListener listener() {
+    return listener;
+  }
 
-    if (hasVisited(graph)) {
-      future = getVisited(graph);
-    } else {
-      future = graph.run(this);
-      visit(graph, future);
-    }
-    return future;
+  /**
+   * @return the deadline of this run, or null
+   */
+  @Nullable
+  Deadline deadline() {
+    return deadline;
+  }
+
+  /**
+   * @return the scope this run shares node results in, or null
+   */
+  @Nullable
+  RunScope scope() {
+    return scope;
   }
 
-  <T> boolean hasVisited(Graph<T> graph) {
-    checkNotNull(graph, "graph");
+  long expectedCost(int slot) {
+    return plan.expectedCost(slot - plan.inputCount());
+  }
+
+  void recordCost(int slot, long nanos) {
+    plan.recordCost(slot - plan.inputCount(), nanos);
+  }
+
+  void recordSkipped(int slot) {
+    plan.recordSkipped(slot - plan.inputCount());
+  }
 
-    return visited.containsKey(graph);
+  boolean isCancelled() {
+    return cancelled;
   }
 
-  <T> ListenableFuture<T> getVisited(Graph<T> graph) {
-    checkNotNull(graph, "graph");
+  /**
+   * Cancels the run: nodes that haven't been invoked won't be, and the futures of all nodes are
+   * cancelled, which in turn cancels the futures returned by nodes that are in flight. Failures
+   * and results that arrive after cancellation are ignored, and fallbacks are not used.
+   */
+  void cancel(boolean mayInterruptIfRunning) {
+    if (cancelled) {
+      return;
+    }
+
+    cancelled = true;
+
+    for (NodeFuture<?> node : nodes) {
+      node.cancel(mayInterruptIfRunning);
+    }
+  }
+
+  /**
+   * Starts the run by supplying the input values to the nodes that need them.
+   *
+   * @param values  the values of all inputs, either plain values or futures
+   * @return a future for the result of the root node
+   */
+  <R> ListenableFuture<R> start(Object[] values) {
+    checkNotNull(values, "values");
+
+    // hold on to the work-list while starting, so that any nodes that become ready are queued
+    queued.incrementAndGet();
+    try {
+      for (NodeFuture<?> node : nodes) {
+        if (node.isReady()) {
+          workList.add(node);
+          queued.incrementAndGet();
+        }
+      }
+
+      for (int i = 0; i < values.length; i++) {
+        if (!(values[i] instanceof ListenableFuture)) {
+          slotSucceeded(i, values[i]);
+        } else {
+          final ListenableFuture<?> future = (ListenableFuture<?>) values[i];
+
+          if (future.isDone()) {
+            inputCompleted(i, future);
+          } else {
+            future.addListener(new InputListener(i, future), sameThreadExecutor());
+          }
+        }
+      }
+    } finally {
+      drain();
+    }
 
-    // this cast is fine because the API enforces it
+    // the root node is always last, and its type is guaranteed by the plan
     //noinspection unchecked
-    return (ListenableFuture<T>) visited.get(graph);
+    return (ListenableFuture<R>) nodes[nodes.length - 1];
   }
 
-  <T> void visit(Graph<T> graph, ListenableFuture<T> future) {
-    checkNotNull(graph, "graph");
-    checkNotNull(future, "future");
+  private void inputCompleted(int slot, ListenableFuture<?> future) {
+    final Object value;
 
-    visited.put(graph, future);
+    try {
+      value = getUninterruptibly(future);
+    } catch (ExecutionException e) {
+      slotFailed(slot, e.getCause());
+      return;
+    } catch (CancellationException e) {
+      slotFailed(slot, e);
+      return;
+    }
+
+    slotSucceeded(slot, value);
   }
 
-  Executor getExecutor() {
-    return executor;
+  /**
+   * Hands the value of a slot to the nodes that consume it. Consumers that become ready are
+   * dispatched, except a consumer that is fused with the slot's node; that one is returned, and
+   * should be invoked directly by the caller.
+   *
+   * @return the fused consumer, if it became ready, or null
+   */
+  @Nullable
+  NodeFuture<?> slotSucceeded(int slot, @Nullable Object value) {
+    final int[] consumers = plan.consumerNodes(slot);
+    final int[] arguments = plan.consumerArguments(slot);
+    NodeFuture<?> fused = null;
+
+    for (int i = 0; i < consumers.length; i++) {
+      final NodeFuture<?> consumer = nodes[consumers[i]];
+
+      if (consumer.resolve(arguments[i], value)) {
+        if (plan.isFused(consumers[i])) {
+          fused = consumer;
+        } else {
+          dispatch(consumer);
+        }
+      }
+    }
+
+    return fused;
+  }
+
+  /**
+   * Propagates the failure of a slot to the nodes that consume it. Consumers with a fallback
+   * handle the failure themselves; all others fail in turn, and the failure is propagated
+   * onwards. This is done using an explicit stack rather than recursion, so that failures can
+   * travel through arbitrarily deep graphs.
+   *
+   * In fail-fast runs, the rest of the run is cancelled once the failure reaches the root node.
+   */
+  void slotFailed(int slot, Throwable t) {
+    checkNotNull(t, "t");
+
+    final Deque<Integer> failedSlots = new ArrayDeque<Integer>();
+    failedSlots.push(slot);
+
+    while (!failedSlots.isEmpty()) {
+      final int failed = failedSlots.pop();
+
+      if (failFast && failed == plan.inputCount() + nodes.length - 1) {
+        cancel(false);
+        return;
+      }
+
+      for (int consumer : plan.consumerNodes(failed)) {
+        final NodeFuture<?> node = nodes[consumer];
+
+        if (!node.claimForFailure()) {
+          continue;
+        }
+
+        if (plan.hasFallback(consumer)) {
+          node.fallback(t);
+        } else {
+          node.failed(t);
+          failedSlots.push(plan.inputCount() + consumer);
+        }
+      }
+    }
   }
 
-  void addBindings(Map<Input<?>, Object> newBindings) {
-    Sets.SetView<Input<?>> intersection = Sets.intersection(bindings.keySet(), newBindings.keySet());
-    checkState(intersection.isEmpty(), "Duplicate binding for inputs: %s", intersection);
-    bindings.putAll(newBindings);
+  void dispatch(NodeFuture<?> node) {
+    workList.add(node);
+
+    if (queued.getAndIncrement() == 0) {
+      drain();
+    }
   }
 
-  static TraverseState empty(Executor executor) {
-    return new TraverseState(Maps.<Input<?>, Object>newHashMap(), executor);
+  /**
+   * Invokes queued nodes until the work-list is empty. Must only be called by the thread that
+   * incremented the queued counter from 0.
+   */
+  private void drain() {
+    do {
+      final NodeFuture<?> next = workList.poll();
+
+      // the poll can come up empty, since the thread holding the work-list doesn't add an item
+      if (next == null) {
+        continue;
+      }
+
+      if (cancelled && next.isAbandoned()) {
+        next.releasePermit(-1);
+        continue;
+      }
+
+      // nodes whose result is cached complete right here, without going to the executor
+      if (next.completeFromCache()) {
+        continue;
+      }
+
+      final Executor nodeExecutor = next.executor(executor);
+
+      if (nodeExecutor == SAME_THREAD_EXECUTOR) {
+        next.run();
+      } else {
+        try {
+          nodeExecutor.execute(next);
+        } catch (RuntimeException e) {
+          next.invocationFailed(e);
+        }
+      }
+    } while (queued.decrementAndGet() != 0);
+  }
+
+  /**
+   * Listens to a future bound to an input.
+   */
+  private final class InputListener implements Runnable {
+    private final int slot;
+    private final ListenableFuture<?> future;
+
+    private InputListener(int slot, ListenableFuture<?> future) {
+      this.slot = slot;
+      this.future = future;
+    }
+
+    @Override
+    public void run() {
+      if (cancelled) {
+        return;
+      }
+
+      inputCompleted(slot, future);
+    }
   }
 }
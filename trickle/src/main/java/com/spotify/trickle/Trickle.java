@@ -16,11 +16,23 @@
 
 package com.spotify.trickle;
 
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AsyncFunction;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
 /**
  * Static methods for constructing Trickle graphs. See the documentation at
  * <a href="https://github.com/spotify/trickle/wiki">the Trickle wiki</a> for more information.
  */
 public final class Trickle {
+  private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+  private static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 2;
+  private static final int DEFAULT_MAX_IN_FLIGHT = 16;
+
   private Trickle() {
     // prevent instantiation
   }
@@ -32,6 +44,13 @@ public final class Trickle {
     return new GraphBuilder<R>(func);
   }
 
+  /**
+   * Creates a graph consisting of a single node executing the supplied synchronous function.
+   */
+  public static <R> ConfigurableGraph<R> call(SyncFunc0<R> func) {
+    return new GraphBuilder<R>(func);
+  }
+
   /**
    * Initiates construction of a new sink node with a single parameter dependency, running the
    * supplied function.
@@ -40,6 +59,14 @@ public final class Trickle {
     return new GraphBuilder.GraphBuilder1<A, R>(func);
   }
 
+  /**
+   * Initiates construction of a new sink node with a single parameter dependency, running the
+   * supplied synchronous function.
+   */
+  public static <A, R> NeedsParameters1<A, R> call(SyncFunc1<A, R> func) {
+    return new GraphBuilder.GraphBuilder1<A, R>(func);
+  }
+
   /**
    * Initiates construction of a new sink node with two parameter dependencies, running the
    * supplied function.
@@ -48,6 +75,14 @@ public final class Trickle {
     return new GraphBuilder.GraphBuilder2<A, B, R>(func);
   }
 
+  /**
+   * Initiates construction of a new sink node with two parameter dependencies, running the
+   * supplied synchronous function.
+   */
+  public static <A, B, R> NeedsParameters2<A, B, R> call(SyncFunc2<A, B, R> func) {
+    return new GraphBuilder.GraphBuilder2<A, B, R>(func);
+  }
+
   /**
    * Initiates construction of a new sink node with three parameter dependencies, running the
    * supplied function.
@@ -56,6 +91,14 @@ public final class Trickle {
     return new GraphBuilder.GraphBuilder3<A, B, C, R>(func);
   }
 
+  /**
+   * Initiates construction of a new sink node with three parameter dependencies, running the
+   * supplied synchronous function.
+   */
+  public static <A, B, C, R> NeedsParameters3<A, B, C, R> call(SyncFunc3<A, B, C, R> func) {
+    return new GraphBuilder.GraphBuilder3<A, B, C, R>(func);
+  }
+
   /**
    * Initiates construction of a new sink node with four parameter dependencies, running the
    * supplied function.
@@ -64,6 +107,14 @@ public final class Trickle {
     return new GraphBuilder.GraphBuilder4<A, B, C, D, R>(func);
   }
 
+  /**
+   * Initiates construction of a new sink node with four parameter dependencies, running the
+   * supplied synchronous function.
+   */
+  public static <A, B, C, D, R> NeedsParameters4<A, B, C, D, R> call(SyncFunc4<A, B, C, D, R> func) {
+    return new GraphBuilder.GraphBuilder4<A, B, C, D, R>(func);
+  }
+
   /**
    * Initiates construction of a new sink node with five parameter dependencies, running the
    * supplied function.
@@ -72,6 +123,86 @@ public final class Trickle {
     return new GraphBuilder.GraphBuilder5<A, B, C, D, E, R>(func);
   }
 
+  /**
+   * Initiates construction of a new sink node with five parameter dependencies, running the
+   * supplied synchronous function.
+   */
+  public static <A, B, C, D, E, R> NeedsParameters5<A, B, C, D, E, R> call(SyncFunc5<A, B, C, D, E, R> func) {
+    return new GraphBuilder.GraphBuilder5<A, B, C, D, E, R>(func);
+  }
+
+  /**
+   * Creates a function that batches lookups of keys across concurrent runs, using
+   * {@link #batched(BatchFunc, int, long, TimeUnit)} with batches of at most 100 keys and a
+   * maximum delay of 2 milliseconds.
+   */
+  public static <K, V> Func1<K, V> batched(BatchFunc<K, V> func) {
+    return batched(func, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MILLIS,
+                   TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Creates a function that batches lookups of keys across concurrent runs. The keys that nodes
+   * calling the function are invoked with, in any run of any graph, are collected into batches,
+   * and each batch is looked up using a single call to the batch function. A batch is sent once
+   * it holds {@code maxBatchSize} keys, or once {@code maxDelay} has passed since its first key
+   * was added. Each node gets the value of its own key; a failure of the batch function fails
+   * all nodes waiting for the batch.
+   *
+   * Use the returned function like any other, for instance
+   * {@code call(batched(lookup)).with(key)}. Each call to this method creates a separate batcher,
+   * so the returned function should be shared by all graphs whose lookups should be batched.
+   */
+  public static <K, V> Func1<K, V> batched(BatchFunc<K, V> func,
+                                           int maxBatchSize,
+                                           long maxDelay,
+                                           TimeUnit unit) {
+    return new Batcher<K, V>(func, maxBatchSize, maxDelay, unit);
+  }
+
+  /**
+   * Creates a graph that invokes the supplied function once per element of a list, using
+   * {@link #forEach(Parameter, Func1, int)} with at most 16 invocations in flight.
+   */
+  public static <T, R> ConfigurableGraph<List<R>> forEach(Parameter<List<T>> elements,
+                                                          Func1<T, R> func) {
+    return forEach(elements, func, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * Creates a graph consisting of a single node that invokes the supplied function once per
+   * element of a list, with at most {@code maxInFlight} invocations in flight at the same time.
+   * The results are in the order of the elements. If any invocation fails, the node fails, and
+   * no further elements are started.
+   *
+   * The function is invoked on the node's executor. Listeners, the timeout and the concurrency
+   * limiter of the node apply to the list as a whole rather than to each element.
+   */
+  public static <T, R> ConfigurableGraph<List<R>> forEach(Parameter<List<T>> elements,
+                                                          Func1<T, R> func,
+                                                          int maxInFlight) {
+    checkNotNull(elements, "elements");
+
+    final Optional<AsyncFunction<Throwable, R>> noFallback = Optional.absent();
+    return call(new ForEach<T, R>(func, maxInFlight, noFallback)).with(elements);
+  }
+
+  /**
+   * Like {@link #forEach(Parameter, Func1, int)}, but an element whose invocation fails gets the
+   * result of {@code elementFallback} instead of failing the node. The node only fails if the
+   * fallback does. Use {@link ConfigurableGraph#fallback(AsyncFunction)} on the returned graph
+   * for a fallback of the whole list.
+   */
+  public static <T, R> ConfigurableGraph<List<R>> forEach(
+      Parameter<List<T>> elements,
+      Func1<T, R> func,
+      int maxInFlight,
+      AsyncFunction<Throwable, R> elementFallback) {
+    checkNotNull(elements, "elements");
+
+    return call(new ForEach<T, R>(func, maxInFlight, Optional.of(elementFallback))).with(elements);
+  }
+
   public interface NeedsParameters1<A, R> {
     /**
      * Indicate where to find values for the parameters required to invoke the function in this
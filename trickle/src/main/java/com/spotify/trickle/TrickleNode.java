@@ -19,8 +19,10 @@ package com.spotify.trickle;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 
 /**
  * Helper class that simplifies executing nodes with different numbers of parameters.
@@ -29,9 +31,24 @@ abstract class TrickleNode<N> {
 
   public abstract ListenableFuture<N> run(List<Object> values);
 
+  /**
+   * Runs the node as part of a graph run, on the given executor. Nodes that start work of their
+   * own after being invoked, like {@link ForEach}, use the executor for that work.
+   */
+  ListenableFuture<N> run(List<Object> values, Executor executor) {
+    return run(values);
+  }
+
   static <V> TrickleNode<V> create(Func<V> func) {
     checkNotNull(func);
 
+    if (func instanceof ForEach) {
+      // the type of the function's result is V, as for any other function
+      //noinspection unchecked
+      return (TrickleNode<V>) (TrickleNode<?>) new ForEachNode<Object, Object>(
+          (ForEach<Object, Object>) func);
+    }
+
     if (func instanceof Func0) {
       return new TrickleNode0<V>((Func0<V>) func);
     }
@@ -51,6 +68,25 @@ abstract class TrickleNode<N> {
       return new TrickleNode5<Object, Object, Object, Object, Object, V>((Func5<Object, Object, Object, Object, Object, V>) func);
     }
 
+    if (func instanceof SyncFunc0) {
+      return new SyncTrickleNode0<V>((SyncFunc0<V>) func);
+    }
+    if (func instanceof SyncFunc1) {
+      return new SyncTrickleNode1<Object, V>((SyncFunc1<Object, V>) func);
+    }
+    if (func instanceof SyncFunc2) {
+      return new SyncTrickleNode2<Object, Object, V>((SyncFunc2<Object, Object, V>) func);
+    }
+    if (func instanceof SyncFunc3) {
+      return new SyncTrickleNode3<Object, Object, Object, V>((SyncFunc3<Object, Object, Object, V>) func);
+    }
+    if (func instanceof SyncFunc4) {
+      return new SyncTrickleNode4<Object, Object, Object, Object, V>((SyncFunc4<Object, Object, Object, Object, V>) func);
+    }
+    if (func instanceof SyncFunc5) {
+      return new SyncTrickleNode5<Object, Object, Object, Object, Object, V>((SyncFunc5<Object, Object, Object, Object, Object, V>) func);
+    }
+
     throw new IllegalArgumentException("unsupported func subclass: " + func.getClass());
   }
 
@@ -147,4 +183,134 @@ abstract class TrickleNode<N> {
       //CHECKSTYLE:ON
     }
   }
+
+  private static class ForEachNode<T, R> extends TrickleNode<List<R>> {
+    private final ForEach<T, R> delegate;
+
+    public ForEachNode(ForEach<T, R> node) {
+      delegate = node;
+    }
+
+    @Override
+    public ListenableFuture<List<R>> run(List<Object> values) {
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((List<T>) values.get(0));
+    }
+
+    @Override
+    ListenableFuture<List<R>> run(List<Object> values, Executor executor) {
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((List<T>) values.get(0), executor);
+    }
+  }
+
+  /**
+   * Base class for nodes wrapping synchronous functions. The result of such a node can be computed
+   * using {@link #apply(List)}, without creating a future.
+   */
+  abstract static class SyncTrickleNode<N> extends TrickleNode<N> {
+    @Override
+    public ListenableFuture<N> run(List<Object> values) {
+      return immediateFuture(apply(values));
+    }
+
+    /**
+     * Computes the result of the node directly.
+     */
+    abstract N apply(List<Object> values);
+  }
+
+  private static class SyncTrickleNode0<N> extends SyncTrickleNode<N> {
+    private final SyncFunc0<N> delegate;
+
+    public SyncTrickleNode0(SyncFunc0<N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      return delegate.run();
+    }
+  }
+
+  private static class SyncTrickleNode1<A, N> extends SyncTrickleNode<N> {
+    private final SyncFunc1<A, N> delegate;
+
+    public SyncTrickleNode1(SyncFunc1<A, N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((A) values.get(0));
+    }
+  }
+
+  private static class SyncTrickleNode2<A, B, N> extends SyncTrickleNode<N> {
+    private final SyncFunc2<A, B, N> delegate;
+
+    public SyncTrickleNode2(SyncFunc2<A, B, N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((A) values.get(0), (B) values.get(1));
+    }
+  }
+
+  private static class SyncTrickleNode3<A, B, C, N> extends SyncTrickleNode<N> {
+    private final SyncFunc3<A, B, C, N> delegate;
+
+    public SyncTrickleNode3(SyncFunc3<A, B, C, N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((A) values.get(0), (B) values.get(1), (C) values.get(2));
+    }
+  }
+
+  private static class SyncTrickleNode4<A, B, C, D, N> extends SyncTrickleNode<N> {
+    private final SyncFunc4<A, B, C, D, N> delegate;
+
+    public SyncTrickleNode4(SyncFunc4<A, B, C, D, N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      //CHECKSTYLE:OFF - we don't care that these are magic numbers
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((A) values.get(0), (B) values.get(1), (C) values.get(2), (D) values.get(3));
+      //CHECKSTYLE:ON
+    }
+  }
+
+  private static class SyncTrickleNode5<A, B, C, D, E, N> extends SyncTrickleNode<N> {
+    private final SyncFunc5<A, B, C, D, E, N> delegate;
+
+    public SyncTrickleNode5(SyncFunc5<A, B, C, D, E, N> node) {
+      delegate = node;
+    }
+
+    @Override
+    N apply(List<Object> values) {
+      //CHECKSTYLE:OFF - we don't care that these are magic numbers
+      // this cast is safe, as guaranteed by the API for creating nodes
+      //noinspection unchecked
+      return delegate.run((A) values.get(0), (B) values.get(1), (C) values.get(2), (D) values.get(3), (E) values.get(4));
+      //CHECKSTYLE:ON
+    }
+  }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Fallbacks.always;
+import static com.spotify.trickle.Trickle.batched;
+import static com.spotify.trickle.Trickle.call;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class BatcherTest {
+  Input<String> key;
+  List<List<String>> batches;
+  BatchFunc<String, String> lookup;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    key = Input.named("key");
+    batches = Lists.newArrayList();
+    lookup = new BatchFunc<String, String>() {
+      @Override
+      public synchronized ListenableFuture<Map<String, String>> run(List<String> keys) {
+        batches.add(keys);
+
+        ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+        for (String key : keys) {
+          if (!key.equals("missing")) {
+            values.put(key, key.toUpperCase());
+          }
+        }
+        return immediateFuture((Map<String, String>) values.build());
+      }
+    };
+  }
+
+  @Test
+  public void shouldSendBatchOnceItIsFull() throws Exception {
+    Graph<String> graph = call(batched(lookup, 3, 1, TimeUnit.HOURS)).with(key);
+
+    ListenableFuture<String> a = graph.bind(key, "a").run();
+    ListenableFuture<String> b = graph.bind(key, "b").run();
+
+    assertThat(batches.size(), equalTo(0));
+
+    ListenableFuture<String> c = graph.bind(key, "c").run();
+
+    assertThat(batches, equalTo(singletonList(asList("a", "b", "c"))));
+    assertThat(a.get(), equalTo("A"));
+    assertThat(b.get(), equalTo("B"));
+    assertThat(c.get(), equalTo("C"));
+  }
+
+  @Test
+  public void shouldSendBatchOnceDelayHasPassed() throws Exception {
+    Graph<String> graph = call(batched(lookup, 100, 5, TimeUnit.MILLISECONDS)).with(key);
+
+    ListenableFuture<String> a = graph.bind(key, "a").run();
+    ListenableFuture<String> b = graph.bind(key, "b").run();
+
+    assertThat(a.get(1, TimeUnit.SECONDS), equalTo("A"));
+    assertThat(b.get(1, TimeUnit.SECONDS), equalTo("B"));
+    assertThat(batches.size(), equalTo(1));
+  }
+
+  @Test
+  public void shouldSendDelayedBatchOffTheTimerThread() throws Exception {
+    BatchFunc<String, String> threadName = new BatchFunc<String, String>() {
+      @Override
+      public ListenableFuture<Map<String, String>> run(List<String> keys) {
+        return immediateFuture(
+            (Map<String, String>) ImmutableMap.of(keys.get(0), Thread.currentThread().getName()));
+      }
+    };
+    Graph<String> graph = call(batched(threadName, 10, 1, TimeUnit.MILLISECONDS)).with(key);
+
+    String thread = graph.bind(key, "a").run().get(1, TimeUnit.SECONDS);
+
+    assertThat(thread, startsWith("trickle-batch-"));
+  }
+
+  @Test
+  public void shouldShareValuesOfDuplicateAndMissingKeys() throws Exception {
+    Graph<String> graph = call(batched(lookup, 3, 1, TimeUnit.HOURS)).with(key);
+
+    ListenableFuture<String> a1 = graph.bind(key, "a").run();
+    ListenableFuture<String> a2 = graph.bind(key, "a").run();
+    ListenableFuture<String> missing = graph.bind(key, "missing").run();
+    ListenableFuture<String> b = graph.bind(key, "b").run();
+
+    assertThat(batches.get(0), equalTo(asList("a", "missing", "b")));
+    assertThat(a1.get(), equalTo("A"));
+    assertThat(a2.get(), equalTo("A"));
+    assertThat(missing.get(), nullValue());
+    assertThat(b.get(), equalTo("B"));
+  }
+
+  @Test
+  public void shouldNotCancelOtherRunsWaitingForSameKey() throws Exception {
+    Graph<String> graph = call(batched(lookup, 2, 1, TimeUnit.HOURS)).with(key);
+
+    ListenableFuture<String> a1 = graph.bind(key, "a").run();
+    ListenableFuture<String> a2 = graph.bind(key, "a").run();
+
+    a1.cancel(false);
+
+    ListenableFuture<String> b = graph.bind(key, "b").run();
+
+    assertThat(a2.get(), equalTo("A"));
+    assertThat(b.get(), equalTo("B"));
+  }
+
+  @Test
+  public void shouldFailAllNodesWaitingForFailedBatch() throws Exception {
+    BatchFunc<String, String> failing = new BatchFunc<String, String>() {
+      @Override
+      public ListenableFuture<Map<String, String>> run(List<String> keys) {
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    };
+    Func1<String, String> batcher = batched(failing, 2, 1, TimeUnit.HOURS);
+    Graph<String> graph = call(batcher).with(key);
+    Graph<String> withFallback = call(batcher).with(key).fallback(always("fallback"));
+
+    ListenableFuture<String> a = graph.bind(key, "a").run();
+    ListenableFuture<String> b = withFallback.bind(key, "b").run();
+
+    assertThat(b.get(), equalTo("fallback"));
+
+    thrown.expect(ExecutionException.class);
+    thrown.expectMessage("expected");
+    a.get();
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BindingsTest {
+  Input<String> input1;
+  Input<String> input2;
+  Graph<String> graph;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    input1 = Input.named("one");
+    input2 = Input.named("two");
+
+    Func2<String, String, String> concat = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + arg2);
+      }
+    };
+
+    graph = call(concat).with(input1, input2);
+  }
+
+  @Test
+  public void shouldRunWithAllBindings() throws Exception {
+    Bindings bindings = Bindings.builder(2)
+        .bind(input1, "hey")
+        .bind(input2, "ho")
+        .build();
+
+    assertThat(graph.bindAll(bindings).run().get(), equalTo("heyho"));
+  }
+
+  @Test
+  public void shouldSupportFutureBindings() throws Exception {
+    SettableFuture<String> future = SettableFuture.create();
+    Bindings bindings = Bindings.builder()
+        .bind(input1, "hey")
+        .bind(input2, future)
+        .build();
+
+    ListenableFuture<String> result = graph.bindAll(bindings).run();
+    future.set("ho");
+
+    assertThat(result.get(), equalTo("heyho"));
+  }
+
+  @Test
+  public void shouldCombineWithChainedBind() throws Exception {
+    Bindings bindings = Bindings.builder()
+        .bind(input1, "hey")
+        .build();
+
+    assertThat(graph.bindAll(bindings).bind(input2, "ho").run().get(), equalTo("heyho"));
+  }
+
+  @Test
+  public void shouldGrowBeyondExpectedSize() throws Exception {
+    Bindings.Builder builder = Bindings.builder(0).bind(input1, "hey");
+    Bindings first = builder.build();
+    Bindings second = builder.bind(input2, "ho").build();
+
+    assertThat(first.size(), equalTo(1));
+    assertThat(first.contains(input2), is(false));
+    assertThat(second.size(), equalTo(2));
+    assertThat(second.contains(input2), is(true));
+  }
+
+  @Test
+  public void shouldThrowForDuplicateBindingInBuilder() throws Exception {
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Duplicate binding for input");
+    thrown.expectMessage("one");
+
+    Bindings.builder().bind(input1, "hey").bind(input1, "ho");
+  }
+
+  @Test
+  public void shouldThrowForDuplicateBindingInGraph() throws Exception {
+    Bindings bindings = Bindings.builder()
+        .bind(input1, "hey")
+        .build();
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Duplicate binding for input");
+    thrown.expectMessage("one");
+
+    graph.bind(input1, "ho").bindAll(bindings);
+  }
+}
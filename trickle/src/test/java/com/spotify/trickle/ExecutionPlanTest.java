@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ExecutionPlanTest {
+  Input<String> input;
+  Func1<String, String> func1;
+  Func2<String, String, String> func2;
+  AtomicInteger counter;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    input = Input.named("in");
+    counter = new AtomicInteger();
+
+    func1 = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        counter.incrementAndGet();
+        return immediateFuture(arg + "+");
+      }
+    };
+    func2 = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + arg2);
+      }
+    };
+  }
+
+  @Test
+  public void shouldSortNodesTopologically() throws Exception {
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(func1).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(func1).with(g1);
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(func2).with(g2, g1);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g3);
+
+    assertThat(plan.nodeCount(), equalTo(3));
+    assertThat(plan.node(0), sameInstance((Object) g1));
+    assertThat(plan.node(1), sameInstance((Object) g2));
+    assertThat(plan.node(2), sameInstance((Object) g3));
+  }
+
+  @Test
+  public void shouldUseDenseSlotIndices() throws Exception {
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(func1).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(func2).with(g1, input);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g2);
+
+    assertThat(plan.inputCount(), equalTo(1));
+    assertThat(plan.input(0), equalTo((Input) input));
+    assertThat(plan.argumentSlots(0), equalTo(new int[] {0}));
+    assertThat(plan.argumentSlots(1), equalTo(new int[] {1, 0}));
+  }
+
+  @Test
+  public void shouldResolvePredecessorSlots() throws Exception {
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(func1).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(func1).with(input).after(g1);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g2);
+
+    assertThat(plan.predecessorSlots(1), equalTo(new int[] {1}));
+  }
+
+  @Test
+  public void shouldIncludeNodeOnlyOnceWhenBoundAndNotBound() throws Exception {
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(func1).with(input);
+    Graph<String> bound = g1.bind(input, "hi");
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(func2).with(bound, g1);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g2);
+
+    assertThat(plan.nodeCount(), equalTo(2));
+    assertThat(plan.run(Bindings.of(), sameThreadExecutor()).get(), equalTo("hi+hi+"));
+    assertThat(counter.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldDetectDuplicateBindingsAtCompileTime() throws Exception {
+    Graph<String> g1 = call(func1).with(input).bind(input, "a");
+    Graph<String> g2 = call(func1).with(input).bind(input, "b");
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(func2).with(g1, g2);
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Duplicate binding for inputs");
+
+    ExecutionPlan.compile(g3);
+  }
+
+  @Test
+  public void shouldFuseLinearChainsOfSyncNodes() throws Exception {
+    SyncFunc1<String, String> sync = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "+";
+      }
+    };
+
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(sync).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(sync).with(g1);
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(sync).with(g2);
+    GraphBuilder<String> g4 = (GraphBuilder<String>) call(func1).with(g3);
+    GraphBuilder<String> g5 = (GraphBuilder<String>) call(sync).with(g4);
+    GraphBuilder<String> g6 = (GraphBuilder<String>) call(func2).with(g5, g5);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g6);
+
+    // g1 depends on an input, g4 is async, g5's producer is async, and g6 has two dependencies
+    assertThat(plan.isFused(0), is(false));
+    assertThat(plan.isFused(1), is(true));
+    assertThat(plan.isFused(2), is(true));
+    assertThat(plan.isFused(3), is(false));
+    assertThat(plan.isFused(4), is(false));
+    assertThat(plan.isFused(5), is(false));
+  }
+
+  @Test
+  public void shouldNotFuseNodeWhoseProducerHasOtherConsumers() throws Exception {
+    SyncFunc1<String, String> sync = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "+";
+      }
+    };
+
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(sync).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(sync).with(g1);
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(func2).with(g2, g1);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g3);
+
+    assertThat(plan.isFused(1), is(false));
+  }
+
+  @Test
+  public void shouldNotFuseNodesOnDifferentExecutors() throws Exception {
+    SyncFunc1<String, String> sync = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "+";
+      }
+    };
+
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(sync).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(sync).with(g1)
+        .executeOn(Executors.newSingleThreadExecutor());
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(sync).with(g2);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g3);
+
+    assertThat(plan.isFused(1), is(false));
+    assertThat(plan.isFused(2), is(false));
+  }
+
+  @Test
+  public void shouldNotFuseConsumersOfCachedNodes() throws Exception {
+    SyncFunc1<String, String> sync = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "+";
+      }
+    };
+
+    GraphBuilder<String> g1 = (GraphBuilder<String>) call(sync).with(input);
+    GraphBuilder<String> g2 = (GraphBuilder<String>) call(sync).with(g1)
+        .cached(CacheSpec.maximumSize(10));
+    GraphBuilder<String> g3 = (GraphBuilder<String>) call(sync).with(g2);
+
+    ExecutionPlan<String> plan = ExecutionPlan.compile(g3);
+
+    assertThat(plan.isFused(1), is(false));
+    assertThat(plan.isFused(2), is(false));
+  }
+
+  @Test
+  public void shouldRunCompiledGraphMultipleTimes() throws Exception {
+    Graph<String> g1 = call(func1).with(input);
+    Graph<String> compiled = call(func2).with(g1, input).compile();
+
+    assertThat(compiled.bind(input, "a").run().get(), equalTo("a+a"));
+    assertThat(compiled.bind(input, "b").run().get(), equalTo("b+b"));
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Trickle.forEach;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ForEachTest {
+  Input<List<Integer>> input;
+  List<SettableFuture<Integer>> started;
+  Func1<Integer, Integer> deferred;
+
+  @Before
+  public void setUp() throws Exception {
+    input = Input.named("elements");
+    started = new ArrayList<SettableFuture<Integer>>();
+
+    deferred = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        SettableFuture<Integer> future = SettableFuture.create();
+        started.add(future);
+        return future;
+      }
+    };
+  }
+
+  @Test
+  public void shouldKeepOrderOfElements() throws Exception {
+    ListenableFuture<List<Integer>> result =
+        forEach(input, deferred).bind(input, ImmutableList.of(1, 2, 3)).run();
+
+    started.get(2).set(30);
+    started.get(0).set(10);
+    started.get(1).set(20);
+
+    assertThat(result.get(), equalTo((List<Integer>) ImmutableList.of(10, 20, 30)));
+  }
+
+  @Test
+  public void shouldLimitInvocationsInFlight() throws Exception {
+    ListenableFuture<List<Integer>> result =
+        forEach(input, deferred, 2).bind(input, ImmutableList.of(1, 2, 3, 4)).run();
+
+    assertThat(started.size(), equalTo(2));
+
+    started.get(1).set(2);
+    assertThat(started.size(), equalTo(3));
+
+    started.get(0).set(1);
+    started.get(2).set(3);
+    assertThat(started.size(), equalTo(4));
+    assertThat(result.isDone(), is(false));
+
+    started.get(3).set(4);
+    assertThat(result.get(), equalTo((List<Integer>) ImmutableList.of(1, 2, 3, 4)));
+  }
+
+  @Test
+  public void shouldUseElementFallback() throws Exception {
+    Func1<Integer, Integer> failOnOdd = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        if (arg % 2 == 1) {
+          return immediateFailedFuture(new RuntimeException("odd"));
+        }
+        return immediateFuture(arg);
+      }
+    };
+
+    List<Integer> result = forEach(input, failOnOdd, 4, Fallbacks.always(-1))
+        .bind(input, ImmutableList.of(1, 2, 3, 4))
+        .run().get();
+
+    assertThat(result, equalTo((List<Integer>) ImmutableList.of(-1, 2, -1, 4)));
+  }
+
+  @Test
+  public void shouldFailAndStopStartingElementsWithoutFallback() throws Exception {
+    RuntimeException expected = new RuntimeException("expected");
+
+    ListenableFuture<List<Integer>> result =
+        forEach(input, deferred, 1).bind(input, ImmutableList.of(1, 2, 3)).run();
+
+    started.get(0).setException(expected);
+
+    try {
+      result.get();
+      fail("expected an exception");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), sameInstance((Throwable) expected));
+    }
+    assertThat(started.size(), equalTo(1));
+  }
+
+  @Test
+  public void shouldInvokeElementsOnNodeExecutor() throws Exception {
+    final SettableFuture<String> first = SettableFuture.create();
+    final CountDownLatch firstStarted = new CountDownLatch(1);
+    Func1<Integer, String> threadName = new Func1<Integer, String>() {
+      @Override
+      public ListenableFuture<String> run(Integer arg) {
+        if (arg == 1) {
+          firstStarted.countDown();
+          return first;
+        }
+        return immediateFuture(Thread.currentThread().getName());
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("node-executor").build());
+
+    try {
+      ListenableFuture<List<String>> result = forEach(input, threadName, 1)
+          .executeOn(executor)
+          .bind(input, ImmutableList.of(1, 2))
+          .run();
+
+      // completes the first element on this thread, which starts the second one
+      firstStarted.await();
+      first.set("first");
+
+      assertThat(result.get().get(1), equalTo("node-executor"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldHandleLargeListsOfImmediateResults() throws Exception {
+    Func1<Integer, Integer> increment = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        return immediateFuture(arg + 1);
+      }
+    };
+    List<Integer> elements = new ArrayList<Integer>();
+    for (int i = 0; i < 5000; i++) {
+      elements.add(i);
+    }
+
+    List<Integer> result = forEach(input, increment, 1).bind(input, elements).run().get();
+
+    assertThat(result.size(), equalTo(5000));
+    assertThat(result.get(4999), equalTo(5000));
+  }
+}
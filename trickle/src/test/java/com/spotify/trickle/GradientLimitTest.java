@@ -0,0 +1,113 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import org.hamcrest.CustomTypeSafeMatcher;
+import org.hamcrest.Matcher;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class GradientLimitTest {
+  private static final long BASE_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+  @Test
+  public void shouldGrowToMaximumWhileLatencyIsStable() throws Exception {
+    GradientLimit limit = new GradientLimit(200);
+
+    for (int i = 0; i < 500; i++) {
+      limit.update(BASE_LATENCY, limit.limit());
+    }
+
+    assertThat(limit.limit(), equalTo(200));
+  }
+
+  @Test
+  public void shouldBackOffWhenLatencyRises() throws Exception {
+    GradientLimit limit = new GradientLimit(200);
+
+    for (int i = 0; i < 500; i++) {
+      limit.update(BASE_LATENCY, limit.limit());
+    }
+    for (int i = 0; i < 50; i++) {
+      limit.update(4 * BASE_LATENCY, limit.limit());
+    }
+
+    assertThat(limit.limit(), lessThan(50));
+  }
+
+  @Test
+  public void shouldNotGrowWhileLimitIsMostlyUnused() throws Exception {
+    GradientLimit limit = new GradientLimit(200);
+
+    for (int i = 0; i < 500; i++) {
+      limit.update(BASE_LATENCY, 1);
+    }
+
+    assertThat(limit.limit(), equalTo(20));
+  }
+
+  @Test
+  public void shouldStayNearCapacityOfSimulatedBackend() throws Exception {
+    // a backend that handles 50 concurrent requests in 10 ms, and queues any beyond that
+    int capacity = 50;
+    GradientLimit limit = new GradientLimit(500);
+
+    for (int i = 0; i < 1000; i++) {
+      int inFlight = limit.limit();
+      long latency = BASE_LATENCY * Math.max(capacity, inFlight) / capacity;
+
+      limit.update(latency, inFlight);
+    }
+
+    assertThat(limit.limit(), greaterThanOrEqualTo(capacity / 2));
+    assertThat(limit.limit(), lessThanOrEqualTo(capacity * 2));
+  }
+
+  // the ordering matchers are in hamcrest-library, which the tests don't depend on
+
+  private static Matcher<Integer> lessThan(final int bound) {
+    return new CustomTypeSafeMatcher<Integer>("a value less than <" + bound + ">") {
+      @Override
+      protected boolean matchesSafely(Integer item) {
+        return item < bound;
+      }
+    };
+  }
+
+  private static Matcher<Integer> lessThanOrEqualTo(final int bound) {
+    return new CustomTypeSafeMatcher<Integer>("a value less than or equal to <" + bound + ">") {
+      @Override
+      protected boolean matchesSafely(Integer item) {
+        return item <= bound;
+      }
+    };
+  }
+
+  private static Matcher<Integer> greaterThanOrEqualTo(final int bound) {
+    return new CustomTypeSafeMatcher<Integer>(
+        "a value greater than or equal to <" + bound + ">") {
+      @Override
+      protected boolean matchesSafely(Integer item) {
+        return item >= bound;
+      }
+    };
+  }
+}
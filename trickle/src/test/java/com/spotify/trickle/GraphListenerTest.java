@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Fallbacks.always;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class GraphListenerTest {
+  Input<String> input;
+  Func1<String, String> func1;
+  RecordingListener listener;
+
+  @Before
+  public void setUp() throws Exception {
+    input = Input.named("in");
+    func1 = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg + "+");
+      }
+    };
+    listener = new RecordingListener();
+  }
+
+  @Test
+  public void shouldNotifyAboutNodesInOrder() throws Exception {
+    Graph<String> g1 = call(func1).with(input).named("first");
+    Graph<String> g2 = call(func1).with(g1).named("second");
+
+    assertThat(g2.withListener(listener).bind(input, "hi").run().get(), equalTo("hi++"));
+
+    assertThat(listener.events, equalTo((List<String>) newArrayList(
+        "runStarted second",
+        "scheduled first",
+        "started first",
+        "completed first",
+        "scheduled second",
+        "started second",
+        "completed second")));
+  }
+
+  @Test
+  public void shouldNotifyAboutFailuresAndFallbacks() throws Exception {
+    Func0<String> failing = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    };
+
+    Graph<String> g1 = call(failing).named("failing");
+    Graph<String> g2 = call(func1).with(g1).named("dependent");
+    Graph<String> g3 = call(func1).with(g2).named("withFallback").fallback(always("fallback"));
+
+    assertThat(g3.withListener(listener).run().get(), equalTo("fallback"));
+
+    assertThat(listener.events, equalTo((List<String>) newArrayList(
+        "runStarted withFallback",
+        "scheduled failing",
+        "started failing",
+        "failed failing expected",
+        "failed dependent expected",
+        "fallbackUsed withFallback expected",
+        "completed withFallback")));
+  }
+
+  @Test
+  public void shouldReportTimesThatIncludeWaitingForInputs() throws Exception {
+    SettableFuture<String> inputFuture = SettableFuture.create();
+    Graph<String> g1 = call(func1).with(input).named("first");
+
+    ListenableFuture<String> future = g1.withListener(listener).bind(input, inputFuture).run();
+
+    Thread.sleep(5);
+    inputFuture.set("hi");
+    future.get();
+
+    assertThat(listener.times.get(1) - listener.times.get(0) >= 5000000, is(true));
+  }
+
+  @Test
+  public void shouldIgnoreExceptionsFromListeners() throws Exception {
+    final AtomicInteger calls = new AtomicInteger();
+    NodeListener throwing = new RecordingListener() {
+      @Override
+      public void nodeStarted(NodeInfo node, long nanoTime) {
+        calls.incrementAndGet();
+        throw new RuntimeException("expected");
+      }
+    };
+
+    Graph<String> graph = call(func1).with(input).withListener(constant(throwing));
+
+    assertThat(graph.bind(input, "hi").run().get(), equalTo("hi+"));
+    assertThat(calls.get(), equalTo(1));
+  }
+
+  private static GraphListener constant(final NodeListener listener) {
+    return new GraphListener() {
+      @Override
+      public NodeListener runStarted(NodeInfo graph, long nanoTime) {
+        return listener;
+      }
+    };
+  }
+
+  private static class RecordingListener implements GraphListener, NodeListener {
+    final List<String> events = newArrayList();
+    final List<Long> times = newArrayList();
+
+    private synchronized void record(String event, long nanoTime) {
+      events.add(event);
+      times.add(nanoTime);
+    }
+
+    @Override
+    public NodeListener runStarted(NodeInfo graph, long nanoTime) {
+      record("runStarted " + graph.name(), nanoTime);
+      return this;
+    }
+
+    @Override
+    public void nodeScheduled(NodeInfo node, long nanoTime) {
+      record("scheduled " + node.name(), nanoTime);
+    }
+
+    @Override
+    public void nodeStarted(NodeInfo node, long nanoTime) {
+      record("started " + node.name(), nanoTime);
+    }
+
+    @Override
+    public void nodeCompleted(NodeInfo node, long nanoTime) {
+      record("completed " + node.name(), nanoTime);
+    }
+
+    @Override
+    public void nodeFailed(NodeInfo node, Throwable t, long nanoTime) {
+      record("failed " + node.name() + " " + t.getMessage(), nanoTime);
+    }
+
+    @Override
+    public void fallbackUsed(NodeInfo node, Throwable t, long nanoTime) {
+      record("fallbackUsed " + node.name() + " " + t.getMessage(), nanoTime);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class GraphSetTest {
+  Input<String> input;
+  AtomicInteger counter;
+  Graph<String> shared;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Before
+  public void setUp() throws Exception {
+    input = Input.named("in");
+    counter = new AtomicInteger();
+
+    shared = call(new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        counter.incrementAndGet();
+        return immediateFuture(arg + "+");
+      }
+    }).with(input);
+  }
+
+  @Test
+  public void shouldRunSharedNodesOnce() throws Exception {
+    Graph<Integer> length = call(new Func1<String, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(String arg) {
+        return immediateFuture(arg.length());
+      }
+    }).with(shared);
+    Graph<String> upper = call(new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg.toUpperCase());
+      }
+    }).with(shared);
+
+    GraphSet.Results results = GraphSet.of(length, upper).bind(input, "hi").run().get();
+
+    assertThat(results.get(length), equalTo(3));
+    assertThat(results.get(upper), equalTo("HI+"));
+    assertThat(counter.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldFailIfAnyGraphFails() throws Exception {
+    final RuntimeException expected = new RuntimeException("expected");
+    Graph<String> failing = call(new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFailedFuture(expected);
+      }
+    }).with(shared);
+
+    try {
+      GraphSet.of(shared, failing).bind(input, "hi").run().get();
+      fail("expected an exception");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), sameInstance((Throwable) expected));
+    }
+  }
+
+  @Test
+  public void shouldNotifyListenerAboutRun() throws Exception {
+    final AtomicReference<String> rootName = new AtomicReference<String>();
+    GraphListener listener = new GraphListener() {
+      @Override
+      public NodeListener runStarted(NodeInfo graph, long nanoTime) {
+        rootName.set(graph.name());
+        return null;
+      }
+    };
+
+    GraphSet.of(shared).bind(input, "hi").withListener(listener).run().get();
+
+    assertThat(rootName.get(), equalTo("graphSet"));
+  }
+
+  @Test
+  public void shouldCancelOtherGraphsWhenFailingFast() throws Exception {
+    final SettableFuture<String> slow = SettableFuture.create();
+    Graph<String> waiting = call(new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return slow;
+      }
+    });
+    Graph<String> failing = call(new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    });
+
+    ListenableFuture<GraphSet.Results> results = GraphSet.of(waiting, failing).failFast().run();
+
+    assertThat(results.isDone(), equalTo(true));
+    assertThat(slow.isCancelled(), equalTo(true));
+  }
+
+  @Test
+  public void shouldShareResultsWithRunsInScope() throws Exception {
+    RunScope scope = RunScope.create();
+
+    GraphSet.of(shared).bind(input, "hi").withScope(scope).run().get();
+    String result = shared.bind(input, "hi").withScope(scope).run().get();
+
+    assertThat(result, equalTo("hi+"));
+    assertThat(counter.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldRejectGraphNotInSet() throws Exception {
+    GraphSet.Results results = GraphSet.of(shared).bind(input, "hi").run().get();
+
+    thrown.expect(IllegalArgumentException.class);
+    thrown.expectMessage("is not part of the set");
+
+    results.get(call(new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFuture("other");
+      }
+    }));
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LatencyRecorderTest {
+  Input<String> input;
+  Func1<String, String> func1;
+  LatencyRecorder recorder;
+
+  @Before
+  public void setUp() throws Exception {
+    input = Input.named("in");
+    func1 = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg + "+");
+      }
+    };
+    recorder = LatencyRecorder.create();
+  }
+
+  @Test
+  public void shouldRecordLatenciesPerNodeName() throws Exception {
+    Graph<String> g1 = call(func1).with(input).named("first");
+    Graph<String> g2 = call(func1).with(g1).named("second");
+    Graph<String> graph = g2.withListener(recorder);
+
+    for (int i = 0; i < 10; i++) {
+      graph.bind(input, "hi").run().get();
+    }
+
+    assertThat(recorder.snapshot().keySet().size(), equalTo(2));
+    assertThat(recorder.snapshot().get("first").totalTime().count(), equalTo(10L));
+    assertThat(recorder.snapshot().get("second").executionTime().count(), equalTo(10L));
+  }
+
+  @Test
+  public void shouldAttributeWaitingForInputsToDependencyWaitTime() throws Exception {
+    SettableFuture<String> inputFuture = SettableFuture.create();
+    Graph<String> graph = call(func1).with(input).named("node").withListener(recorder);
+
+    ListenableFuture<String> future = graph.bind(input, inputFuture).run();
+    Thread.sleep(10);
+    inputFuture.set("hi");
+    future.get();
+
+    NodeLatencies latencies = recorder.snapshot().get("node");
+    assertThat(latencies.dependencyWaitTime().p50() >= 10000000, is(true));
+    assertThat(latencies.executionTime().p50() < 10000000, is(true));
+  }
+
+  @Test
+  public void shouldNotRecordNodesThatWereNeverInvoked() throws Exception {
+    Func0<String> failing = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    };
+    Graph<String> g1 = call(failing).named("failing");
+    Graph<String> g2 = call(func1).with(g1).named("dependent");
+
+    g2.withListener(recorder).run();
+
+    assertThat(recorder.snapshot().get("failing").totalTime().count(), equalTo(1L));
+    assertThat(recorder.snapshot().containsKey("dependent"), is(false));
+  }
+}
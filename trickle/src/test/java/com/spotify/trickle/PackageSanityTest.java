@@ -16,11 +16,16 @@
 
 package com.spotify.trickle;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.testing.AbstractPackageSanityTests;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.junit.Before;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 
 public class PackageSanityTest extends AbstractPackageSanityTests {
 
@@ -28,6 +33,12 @@ public class PackageSanityTest extends AbstractPackageSanityTests {
   @Override
   public void setUp() throws Exception {
     setDefault(Input.class, Input.named("hi"));
+    setDefault(Bindings.class, Bindings.of());
+    setDefault(Deadline.class, Deadline.after(1, TimeUnit.SECONDS));
+    setDefault(CacheSpec.class, CacheSpec.maximumSize(1));
+    setDefault(SettableFuture.class, SettableFuture.create());
+    setDefault(RunScope.SharedResult.class, new RunScope.SharedResult<Object>());
+    setDefault(LatencySnapshot.class, new StripedHistogram(1).snapshot());
     // this is needed since otherwise, the wrong exception gets thrown by the ConnectedNode
     // constructor - no raw Nodes should ever be used, only NodeN:s, and it seems the
     // AbstractPackageSanityTests creates some non-null instance of Func to use
@@ -44,9 +55,20 @@ public class PackageSanityTest extends AbstractPackageSanityTests {
         throw new UnsupportedOperationException();
       }
     });
-    final GraphBuilder<?> graphBuilder = new GraphBuilder<Object>(node0);
+    final GraphBuilder<Object> graphBuilder = new GraphBuilder<Object>(node0);
     setDefault(Graph.class, graphBuilder);
     setDefault(GraphBuilder.class, graphBuilder);
+    // graph sets can't be empty
+    setDefault(Graph[].class, new Graph<?>[] {graphBuilder});
+    final NodeTrace nodeTrace = new NodeTrace(graphBuilder, 0, 0, 0, false);
+    nodeTrace.setDependencies(ImmutableList.<NodeTrace>of(), ImmutableList.<NodeTrace>of());
+    setDefault(NodeTrace.class, nodeTrace);
+    final ExecutionPlan<?> plan = ExecutionPlan.compile(graphBuilder);
+    setDefault(ExecutionPlan.class, plan);
+    final TraverseState traverseState =
+        new TraverseState(plan, sameThreadExecutor(), null, null, false, null);
+    setDefault(TraverseState.class, traverseState);
+    setDefault(NodeFuture.class, new NodeFuture<Object>(traverseState, 0, graphBuilder, 0));
 
     super.setUp();
   }
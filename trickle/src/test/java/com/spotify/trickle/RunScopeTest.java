@@ -0,0 +1,237 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RunScopeTest {
+  Input<String> user;
+  AtomicInteger fetches;
+  SettableFuture<String> profile;
+  Graph<String> fetchProfile;
+
+  @Before
+  public void setUp() throws Exception {
+    user = Input.named("user");
+    fetches = new AtomicInteger();
+    profile = SettableFuture.create();
+
+    Func1<String, String> fetch = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        fetches.incrementAndGet();
+        return profile;
+      }
+    };
+    fetchProfile = call(fetch).with(user);
+  }
+
+  @Test
+  public void shouldShareNodeResultsBetweenRunsInScope() throws Exception {
+    Graph<String> greeting = call(suffix("!")).with(fetchProfile);
+    Graph<String> farewell = call(suffix("?")).with(fetchProfile);
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = greeting.bind(user, "u1").withScope(scope).run();
+    ListenableFuture<String> second = farewell.bind(user, "u1").withScope(scope).run();
+
+    profile.set("profile");
+
+    assertThat(first.get(), equalTo("profile!"));
+    assertThat(second.get(), equalTo("profile?"));
+    assertThat(fetches.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldNotShareResultsForDifferentArguments() throws Exception {
+    RunScope scope = RunScope.create();
+
+    fetchProfile.bind(user, "u1").withScope(scope).run();
+    fetchProfile.bind(user, "u2").withScope(scope).run();
+
+    assertThat(fetches.get(), equalTo(2));
+  }
+
+  @Test
+  public void shouldNotCancelSharedResultWhenJoiningRunIsCancelled() throws Exception {
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = fetchProfile.bind(user, "u1").withScope(scope).run();
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+
+    second.cancel(false);
+    profile.set("profile");
+
+    assertThat(first.get(), equalTo("profile"));
+    assertThat(profile.isCancelled(), is(false));
+  }
+
+  @Test
+  public void shouldNotCancelSharedResultWhenInvokingRunIsCancelled() throws Exception {
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = fetchProfile.bind(user, "u1").withScope(scope).run();
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+
+    first.cancel(false);
+    profile.set("profile");
+
+    assertThat(second.get(), equalTo("profile"));
+    assertThat(fetches.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldNotCancelSharedResultWhenInvokingRunFailsFast() throws Exception {
+    final SettableFuture<String> failure = SettableFuture.create();
+    Func1<String, String> fail = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return failure;
+      }
+    };
+    Graph<String> failing = call(fail).with(user);
+    Graph<String> both = call(concat()).with(fetchProfile, failing);
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = both.bind(user, "u1").failFast().withScope(scope).run();
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+
+    failure.setException(new RuntimeException("expected"));
+    profile.set("profile");
+
+    assertThat(first.isDone(), is(true));
+    assertThat(second.get(), equalTo("profile"));
+  }
+
+  @Test
+  public void shouldCancelSharedResultWhenAllRunsAreCancelled() throws Exception {
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = fetchProfile.bind(user, "u1").withScope(scope).run();
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+
+    first.cancel(false);
+    assertThat(profile.isCancelled(), is(false));
+
+    second.cancel(false);
+    assertThat(profile.isCancelled(), is(true));
+  }
+
+  @Test
+  public void shouldInvokeNodeAgainAfterAllRunsUsingItWereCancelled() throws Exception {
+    RunScope scope = RunScope.create();
+
+    fetchProfile.bind(user, "u1").withScope(scope).run().cancel(false);
+
+    profile = SettableFuture.create();
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+    profile.set("profile");
+
+    assertThat(second.get(), equalTo("profile"));
+    assertThat(fetches.get(), equalTo(2));
+  }
+
+  @Test
+  public void shouldNotShareDeadlineSkips() throws Exception {
+    RunScope scope = RunScope.create();
+
+    ListenableFuture<String> first = fetchProfile.bind(user, "u1").withScope(scope)
+        .run(sameThreadExecutor(), Deadline.after(0, TimeUnit.MILLISECONDS));
+    ListenableFuture<String> second = fetchProfile.bind(user, "u1").withScope(scope).run();
+
+    profile.set("profile");
+
+    try {
+      first.get();
+      fail("expected an exception");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(TimeoutException.class));
+    }
+    assertThat(second.get(), equalTo("profile"));
+    assertThat(fetches.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldNotShareLimiterRejections() throws Exception {
+    final Map<String, SettableFuture<String>> pending =
+        new HashMap<String, SettableFuture<String>>();
+    Func1<String, String> fetch = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        SettableFuture<String> future = SettableFuture.create();
+        pending.put(arg, future);
+        return future;
+      }
+    };
+    Graph<String> limited = call(fetch).with(user).maxConcurrency(1, 0);
+    RunScope scope = RunScope.create();
+
+    limited.bind(user, "other").run();
+    ListenableFuture<String> rejected = limited.bind(user, "u1").withScope(scope).run();
+
+    try {
+      rejected.get();
+      fail("expected an exception");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+    }
+
+    pending.get("other").set("done");
+    ListenableFuture<String> retried = limited.bind(user, "u1").withScope(scope).run();
+    pending.get("u1").set("profile");
+
+    assertThat(retried.get(), equalTo("profile"));
+  }
+
+  private Func2<String, String, String> concat() {
+    return new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + arg2);
+      }
+    };
+  }
+
+  private Func1<String, String> suffix(final String suffix) {
+    return new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg + suffix);
+      }
+    };
+  }
+}
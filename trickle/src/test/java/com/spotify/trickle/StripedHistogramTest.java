@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StripedHistogramTest {
+
+  @Test
+  public void shouldMapEachValueToBucketContainingIt() throws Exception {
+    for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, 1L << 39}) {
+      int bucket = StripedHistogram.bucketIndex(value);
+
+      assertThat(value <= StripedHistogram.bucketUpperBound(bucket), is(true));
+      assertThat(bucket == 0 || value > StripedHistogram.bucketUpperBound(bucket - 1), is(true));
+    }
+  }
+
+  @Test
+  public void shouldComputePercentilesWithinPrecision() throws Exception {
+    StripedHistogram histogram = new StripedHistogram(4);
+
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i * 1000L);
+    }
+
+    LatencySnapshot snapshot = histogram.snapshot();
+
+    assertThat(snapshot.count(), equalTo(1000L));
+    assertWithin(snapshot.p50(), 500000);
+    assertWithin(snapshot.p99(), 990000);
+    assertWithin(snapshot.p999(), 999000);
+  }
+
+  @Test
+  public void shouldReturnZeroForEmptyHistogram() throws Exception {
+    LatencySnapshot snapshot = new StripedHistogram(1).snapshot();
+
+    assertThat(snapshot.count(), equalTo(0L));
+    assertThat(snapshot.p99(), equalTo(0L));
+  }
+
+  @Test
+  public void shouldNotLoseConcurrentlyRecordedValues() throws Exception {
+    final StripedHistogram histogram = new StripedHistogram(2);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    for (int i = 0; i < 8; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 10000; j++) {
+            histogram.record(j);
+          }
+        }
+      });
+    }
+
+    executor.shutdown();
+    executor.awaitTermination(10, TimeUnit.SECONDS);
+
+    assertThat(histogram.snapshot().count(), equalTo(80000L));
+  }
+
+  private static void assertWithin(long actual, long expected) {
+    assertThat(actual + " should be within 7% of " + expected,
+               actual >= expected && actual <= expected * 1.07, is(true));
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class TimerWheelTest {
+  TimerWheel timer;
+
+  @Before
+  public void setUp() throws Exception {
+    // a small wheel, so that timeouts need several rotations
+    timer = new TimerWheel(1, TimeUnit.MILLISECONDS, 8, "test-timer");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    timer.stop();
+  }
+
+  @Test
+  public void shouldRunTaskAfterDelay() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final long start = System.nanoTime();
+
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 30, TimeUnit.MILLISECONDS);
+
+    assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+    assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(30), is(true));
+  }
+
+  @Test
+  public void shouldNotRunCancelledTask() throws Exception {
+    final AtomicInteger runs = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    TimerWheel.Timeout timeout = timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+      }
+    }, 5, TimeUnit.MILLISECONDS);
+    timer.schedule(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 20, TimeUnit.MILLISECONDS);
+
+    assertThat(timeout.cancel(), is(true));
+    assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+    assertThat(runs.get(), equalTo(0));
+  }
+
+  @Test
+  public void shouldRunManyTasks() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(10000);
+
+    for (int i = 0; i < 10000; i++) {
+      timer.schedule(new Runnable() {
+        @Override
+        public void run() {
+          latch.countDown();
+        }
+      }, i % 50, TimeUnit.MILLISECONDS);
+    }
+
+    assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+  }
+}
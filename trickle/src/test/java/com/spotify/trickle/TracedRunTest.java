@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2014 Spotify AB. All rights reserved.
+ *
+ * The contents of this file are licensed under the Apache License, Version
+ * 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.spotify.trickle;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.spotify.trickle.Trickle.call;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TracedRunTest {
+  Input<String> fast;
+  Input<String> slow;
+  Func1<String, String> func1;
+  Func2<String, String, String> func2;
+
+  @Before
+  public void setUp() throws Exception {
+    fast = Input.named("fast");
+    slow = Input.named("slow");
+    func1 = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg + "+");
+      }
+    };
+    func2 = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + arg2);
+      }
+    };
+  }
+
+  @Test
+  public void shouldFollowLastFinishingDependencyForCriticalPath() throws Exception {
+    SettableFuture<String> slowFuture = SettableFuture.create();
+
+    Graph<String> g1 = call(func1).with(fast).named("fastNode");
+    Graph<String> g2 = call(func1).with(slow).named("slowNode");
+    Graph<String> g3 = call(func1).with(g2).named("afterSlow");
+    Graph<String> g4 = call(func2).with(g1, g3).named("combine");
+
+    ListenableFuture<TracedRun<String>> future =
+        g4.bind(fast, "a").bind(slow, slowFuture).runTraced();
+
+    Thread.sleep(5);
+    slowFuture.set("b");
+
+    TracedRun<String> run = future.get();
+
+    assertThat(run.result().get(), equalTo("a+b++"));
+    assertThat(run.criticalPath().size(), equalTo(3));
+    assertThat(run.criticalPath().get(0).node().name(), equalTo("slowNode"));
+    assertThat(run.criticalPath().get(1).node().name(), equalTo("afterSlow"));
+    assertThat(run.criticalPath().get(2), sameInstance(run.root()));
+    // the fast node finished before the slow input was set, and the root was scheduled after
+    // the slow chain finished
+    NodeTrace fastTrace = run.root().arguments().get(0);
+    assertThat(fastTrace.finishedNanos() >= 0, is(true));
+    assertThat(fastTrace.finishedNanos() <= run.criticalPath().get(0).startedNanos(), is(true));
+    assertThat(run.criticalPath().get(1).finishedNanos() <= run.root().scheduledNanos(), is(true));
+    assertThat(run.toString(), containsString("* combine"));
+    assertThat(run.toString(), containsString("  fastNode"));
+  }
+
+  @Test
+  public void shouldTraceFailedRuns() throws Exception {
+    Func0<String> failing = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    };
+
+    Graph<String> g1 = call(failing).named("failing");
+    Graph<String> g2 = call(func1).with(g1).named("dependent");
+
+    TracedRun<String> run = g2.runTraced().get();
+
+    try {
+      run.result().get();
+      fail("expected exception");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getMessage(), equalTo("expected"));
+    }
+
+    assertThat(run.root().failed(), is(true));
+    assertThat(run.root().startedNanos(), equalTo(-1L));
+    assertThat(run.root().arguments().get(0).failed(), is(true));
+    assertThat(run.root().arguments().get(0).startedNanos() >= 0, is(true));
+  }
+
+  @Test
+  public void shouldNotifyAttachedListenerWhenTracing() throws Exception {
+    LatencyRecorder recorder = LatencyRecorder.create();
+
+    call(func1).with(fast).named("node").withListener(recorder).bind(fast, "a").runTraced().get();
+
+    assertThat(recorder.snapshot().get("node").totalTime().count(), equalTo(1L));
+  }
+}
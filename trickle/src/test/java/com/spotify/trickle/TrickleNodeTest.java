@@ -88,6 +88,21 @@ public class TrickleNodeTest {
     assertThat(node.run(ImmutableList.<Object>of("hi", "there", "you")).get(), equalTo(result));
   }
 
+  @Test
+  public void shouldInstantiateSyncNode2() throws Exception {
+    TrickleNode node = TrickleNode.create(new SyncFunc2<String, String, Object>() {
+      @Override
+      public Object run(String arg, String arg2) {
+        return result;
+      }
+    });
+
+    assertThat(node instanceof TrickleNode.SyncTrickleNode, equalTo(true));
+    assertThat(((TrickleNode.SyncTrickleNode) node).apply(ImmutableList.<Object>of("hi", "there")),
+               equalTo(result));
+    assertThat(node.run(ImmutableList.<Object>of("hi", "there")).get(), equalTo(result));
+  }
+
   @Test
   public void shouldFailForUnknownNode() throws Exception {
     thrown.expect(IllegalArgumentException.class);
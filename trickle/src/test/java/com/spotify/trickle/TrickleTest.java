@@ -16,29 +16,42 @@
 
 package com.spotify.trickle;
 
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 import static com.spotify.trickle.Fallbacks.always;
 import static com.spotify.trickle.Trickle.call;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.isA;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 /**
@@ -514,4 +527,805 @@ public class TrickleTest {
 
     assertThat(future.get(), equalTo(9));
   }
+
+  @Test
+  public void shouldHandleVeryDeepGraphs() throws Exception {
+    SettableFuture<Integer> inputFuture = SettableFuture.create();
+
+    Func1<Integer, Integer> increment = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        return immediateFuture(arg + 1);
+      }
+    };
+    Input<Integer> input = Input.named("input");
+
+    Graph<Integer> g = call(increment).with(input);
+    for (int i = 1; i < 20000; i++) {
+      g = call(increment).with(g);
+    }
+
+    ListenableFuture<Integer> future = g.bind(input, inputFuture).run();
+
+    inputFuture.set(0);
+
+    assertThat(future.get(), equalTo(20000));
+  }
+
+  @Test
+  public void shouldPropagateFailureThroughVeryDeepGraphs() throws Exception {
+    SettableFuture<Integer> inputFuture = SettableFuture.create();
+
+    Func1<Integer, Integer> increment = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        return immediateFuture(arg + 1);
+      }
+    };
+    Input<Integer> input = Input.named("input");
+
+    Graph<Integer> g = call(increment).with(input);
+    for (int i = 1; i < 20000; i++) {
+      g = call(increment).with(g);
+    }
+
+    ListenableFuture<Integer> future = g.bind(input, inputFuture).run();
+
+    Throwable expected = new RuntimeException("expected");
+    inputFuture.setException(expected);
+
+    thrown.expect(ExecutionException.class);
+    thrown.expectCause(is(expected));
+
+    future.get();
+  }
+
+  @Test
+  public void shouldHandleVeryDeepGraphsOnExecutor() throws Exception {
+    Func1<Integer, Integer> increment = new Func1<Integer, Integer>() {
+      @Override
+      public ListenableFuture<Integer> run(Integer arg) {
+        return immediateFuture(arg + 1);
+      }
+    };
+    Input<Integer> input = Input.named("input");
+
+    Graph<Integer> g = call(increment).with(input);
+    for (int i = 1; i < 20000; i++) {
+      g = call(increment).with(g);
+    }
+
+    assertThat(g.bind(input, 0).run(executorService).get(), equalTo(20000));
+  }
+
+  @Test
+  public void shouldInvokeWideFanInNodeWhenLastDependencyCompletes() throws Exception {
+    final List<SettableFuture<Void>> futures = Lists.newArrayList();
+    Graph<?>[] predecessors = new Graph<?>[300];
+
+    for (int i = 0; i < predecessors.length; i++) {
+      final SettableFuture<Void> future = SettableFuture.create();
+      futures.add(future);
+      predecessors[i] = call(new Func0<Void>() {
+        @Override
+        public ListenableFuture<Void> run() {
+          return future;
+        }
+      });
+    }
+
+    Graph<String> graph = call(node1).after(predecessors);
+    future1.set("done");
+
+    ListenableFuture<String> result = graph.run(executorService);
+
+    for (SettableFuture<Void> future : futures.subList(1, futures.size())) {
+      future.set(null);
+    }
+
+    assertThat(result.isDone(), is(false));
+
+    futures.get(0).set(null);
+
+    assertThat(result.get(), equalTo("done"));
+  }
+
+  @Test
+  public void shouldUseFallbackWhenExecutorRejectsNode() throws Exception {
+    Executor rejecting = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException("expected");
+      }
+    };
+
+    Graph<String> graph = call(node1).fallback(always("fallback response"));
+
+    assertThat(graph.run(rejecting).get(), equalTo("fallback response"));
+  }
+
+  @Test
+  public void shouldCompleteSynchronouslyWhenAllValuesAreAvailable() throws Exception {
+    Input<String> input = Input.named("input");
+    Func1<String, String> func = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg + "!");
+      }
+    };
+
+    Graph<String> g1 = call(func).with(input);
+    Graph<String> g2 = call(func).with(g1);
+
+    ListenableFuture<String> future = g2.bind(input, "hey").run();
+
+    assertThat(future.isDone(), is(true));
+    assertThat(future.get(), equalTo("hey!!"));
+  }
+
+  @Test
+  public void shouldMixSyncAndAsyncNodes() throws Exception {
+    SyncFunc1<String, Integer> length = new SyncFunc1<String, Integer>() {
+      @Override
+      public Integer run(String arg) {
+        return arg.length();
+      }
+    };
+    Func2<String, Integer, String> describe = new Func2<String, Integer, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, Integer arg2) {
+        return immediateFuture(arg1 + " has length " + arg2);
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<Integer> g1 = call(length).with(input);
+    Graph<String> g2 = call(describe).with(input, g1);
+
+    assertThat(g2.bind(input, "hello").run().get(), equalTo("hello has length 5"));
+  }
+
+  @Test
+  public void shouldUseFallbackWhenSyncNodeThrows() throws Exception {
+    SyncFunc0<String> failing = new SyncFunc0<String>() {
+      @Override
+      public String run() {
+        throw new IllegalStateException("expected");
+      }
+    };
+
+    Graph<String> graph = call(failing).fallback(always("fallback response"));
+
+    assertThat(graph.run().get(), equalTo("fallback response"));
+  }
+
+  @Test
+  public void shouldInvokeChainOfSyncNodesInSingleTask() throws Exception {
+    final AtomicInteger submissions = new AtomicInteger();
+    Executor counting = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        submissions.incrementAndGet();
+        command.run();
+      }
+    };
+    SyncFunc1<Integer, Integer> increment = new SyncFunc1<Integer, Integer>() {
+      @Override
+      public Integer run(Integer arg) {
+        return arg + 1;
+      }
+    };
+
+    Input<Integer> input = Input.named("input");
+    Graph<Integer> graph = call(increment).with(input);
+    for (int i = 0; i < 99; i++) {
+      graph = call(increment).with(graph);
+    }
+
+    assertThat(graph.bind(input, 0).run(counting).get(), equalTo(100));
+    assertThat(submissions.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldUseFallbackOfFusedNode() throws Exception {
+    SyncFunc1<String, String> failing = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        throw new IllegalStateException("expected");
+      }
+    };
+    SyncFunc1<String, String> exclaim = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "!";
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<String> g1 = call(exclaim).with(input);
+    Graph<String> g2 = call(failing).with(g1).fallback(always("fallback response"));
+    Graph<String> g3 = call(exclaim).with(g2);
+
+    assertThat(g3.bind(input, "hi").run().get(), equalTo("fallback response!"));
+  }
+
+  @Test
+  public void shouldUseFallbackWhenNodeTimesOut() throws Exception {
+    final SettableFuture<String> never = SettableFuture.create();
+    Func0<String> slow = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return never;
+      }
+    };
+
+    Graph<String> graph = call(slow).timeout(20, TimeUnit.MILLISECONDS)
+        .fallback(new AsyncFunction<Throwable, String>() {
+          @Override
+          public ListenableFuture<String> apply(Throwable input) {
+            return immediateFuture(input.getClass().getSimpleName());
+          }
+        });
+
+    assertThat(graph.run().get(1, TimeUnit.SECONDS), equalTo("TimeoutException"));
+    assertThat(never.isCancelled(), is(true));
+  }
+
+  @Test
+  public void shouldFailWithTimeoutExceptionWhenNodeWithoutFallbackTimesOut() throws Exception {
+    Func0<String> slow = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return SettableFuture.create();
+      }
+    };
+
+    thrown.expect(ExecutionException.class);
+    thrown.expectCause(isA(TimeoutException.class));
+
+    call(slow).timeout(20, TimeUnit.MILLISECONDS).run().get(1, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void shouldHandleTimeoutsOffTheTimerThread() throws Exception {
+    Func0<String> slow = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return SettableFuture.create();
+      }
+    };
+    AsyncFunction<Throwable, String> threadName = new AsyncFunction<Throwable, String>() {
+      @Override
+      public ListenableFuture<String> apply(Throwable input) {
+        return immediateFuture(Thread.currentThread().getName());
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("node-executor").build());
+
+    try {
+      Graph<String> onExecutor = call(slow).timeout(20, TimeUnit.MILLISECONDS)
+          .executeOn(executor).fallback(threadName);
+      Graph<String> inline = call(slow).timeout(20, TimeUnit.MILLISECONDS).fallback(threadName);
+      Graph<String> onSameThread = call(slow).timeout(20, TimeUnit.MILLISECONDS)
+          .executeOn(sameThreadExecutor()).fallback(threadName);
+
+      assertThat(onExecutor.run().get(1, TimeUnit.SECONDS), equalTo("node-executor"));
+      assertThat(inline.run().get(1, TimeUnit.SECONDS), startsWith("trickle-timeout-"));
+      assertThat(inline.run(sameThreadExecutor()).get(1, TimeUnit.SECONDS),
+                 startsWith("trickle-timeout-"));
+      assertThat(onSameThread.run().get(1, TimeUnit.SECONDS), startsWith("trickle-timeout-"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldNotTimeOutNodeThatCompletesInTime() throws Exception {
+    final SettableFuture<String> future = SettableFuture.create();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return future;
+      }
+    };
+
+    ListenableFuture<String> result =
+        call(node).timeout(50, TimeUnit.MILLISECONDS).fallback(always("timed out")).run();
+
+    future.set("in time");
+    Thread.sleep(100);
+
+    assertThat(result.get(), equalTo("in time"));
+  }
+
+  @Test
+  public void shouldSkipNodeToFallbackWhenDeadlineHasPassed() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        invocations.incrementAndGet();
+        return immediateFuture("invoked");
+      }
+    };
+
+    Graph<String> graph = call(node).fallback(new AsyncFunction<Throwable, String>() {
+      @Override
+      public ListenableFuture<String> apply(Throwable input) {
+        return immediateFuture(input.getClass().getSimpleName());
+      }
+    });
+
+    assertThat(graph.run(sameThreadExecutor(), Deadline.after(0, TimeUnit.MILLISECONDS)).get(),
+               equalTo("TimeoutException"));
+    assertThat(invocations.get(), equalTo(0));
+  }
+
+  @Test
+  public void shouldSkipNodeExpectedToTakeLongerThanTimeLeft() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    SyncFunc0<String> slow = new SyncFunc0<String>() {
+      @Override
+      public String run() {
+        invocations.incrementAndGet();
+        Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        return "slow";
+      }
+    };
+
+    Graph<String> graph = call(slow).fallback(always("skipped")).compile();
+
+    // the first run teaches the graph how long the node takes
+    assertThat(graph.run(sameThreadExecutor(), Deadline.after(1, TimeUnit.SECONDS)).get(),
+               equalTo("slow"));
+    assertThat(graph.run(sameThreadExecutor(), Deadline.after(20, TimeUnit.MILLISECONDS)).get(),
+               equalTo("skipped"));
+    assertThat(invocations.get(), equalTo(1));
+  }
+
+  @Test
+  public void shouldInvokeSkippedNodeAgainOnceItsEstimateHasDecayed() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    SyncFunc0<String> spiky = new SyncFunc0<String>() {
+      @Override
+      public String run() {
+        if (invocations.incrementAndGet() == 1) {
+          Uninterruptibles.sleepUninterruptibly(60, TimeUnit.MILLISECONDS);
+        }
+        return "invoked";
+      }
+    };
+
+    Graph<String> graph = call(spiky).fallback(always("skipped")).compile();
+
+    // a single slow invocation, after which the node recovers
+    graph.run(sameThreadExecutor(), Deadline.after(1, TimeUnit.SECONDS)).get();
+
+    int skipped = 0;
+    while (graph.run(sameThreadExecutor(), Deadline.after(50, TimeUnit.MILLISECONDS)).get()
+        .equals("skipped")) {
+      assertThat(++skipped < 10, is(true));
+    }
+
+    assertThat(skipped > 0, is(true));
+    assertThat(invocations.get(), equalTo(2));
+  }
+
+  @Test
+  public void shouldFailNodeWithoutFallbackWhenDeadlineHasPassed() throws Exception {
+    thrown.expect(ExecutionException.class);
+    thrown.expectCause(isA(TimeoutException.class));
+
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return immediateFuture("invoked");
+      }
+    };
+
+    call(node).run(sameThreadExecutor(), Deadline.after(-1, TimeUnit.MILLISECONDS)).get();
+  }
+
+  @Test
+  public void shouldCancelInFlightNodesWhenResultIsCancelled() throws Exception {
+    final SettableFuture<String> inFlight = SettableFuture.create();
+    final AtomicInteger invocations = new AtomicInteger();
+    Func0<String> first = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return inFlight;
+      }
+    };
+    Func1<String, String> second = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        invocations.incrementAndGet();
+        return immediateFuture(arg);
+      }
+    };
+
+    Graph<String> g1 = call(first).fallback(always("fallback"));
+    ListenableFuture<String> result = call(second).with(g1).run();
+
+    assertThat(result.cancel(true), is(true));
+    assertThat(inFlight.isCancelled(), is(true));
+    assertThat(invocations.get(), equalTo(0));
+  }
+
+  @Test
+  public void shouldNotInvokeNodesAfterResultIsCancelled() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    Func1<String, String> node = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        invocations.incrementAndGet();
+        return immediateFuture(arg);
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    SettableFuture<String> inputFuture = SettableFuture.create();
+    Graph<String> g1 = call(node).with(input);
+    ListenableFuture<String> result = call(node).with(g1).bind(input, inputFuture).run();
+
+    result.cancel(false);
+    inputFuture.set("late");
+
+    assertThat(result.isCancelled(), is(true));
+    assertThat(invocations.get(), equalTo(0));
+  }
+
+  @Test
+  public void shouldCancelOtherNodesWhenFailingFast() throws Exception {
+    SettableFuture<String> inFlight = SettableFuture.create();
+    SettableFuture<String> inputFuture = SettableFuture.create();
+
+    ListenableFuture<String> result = siblingsGraph(inFlight, inputFuture).failFast().run();
+
+    inputFuture.setException(new RuntimeException("expected"));
+
+    assertThat(result.isDone(), is(true));
+    assertThat(inFlight.isCancelled(), is(true));
+
+    thrown.expect(ExecutionException.class);
+    thrown.expectMessage("expected");
+    result.get();
+  }
+
+  @Test
+  public void shouldNotCancelOtherNodesWhenNotFailingFast() throws Exception {
+    SettableFuture<String> inFlight = SettableFuture.create();
+    SettableFuture<String> inputFuture = SettableFuture.create();
+
+    ListenableFuture<String> result = siblingsGraph(inFlight, inputFuture).run();
+
+    inputFuture.setException(new RuntimeException("expected"));
+
+    assertThat(result.isDone(), is(true));
+    assertThat(inFlight.isCancelled(), is(false));
+  }
+
+  @Test
+  public void shouldInvokeNodeOnItsOwnExecutor() throws Exception {
+    SyncFunc0<Thread> currentThread = new SyncFunc0<Thread>() {
+      @Override
+      public Thread run() {
+        return Thread.currentThread();
+      }
+    };
+    SyncFunc2<Thread, Thread, List<Thread>> both = new SyncFunc2<Thread, Thread, List<Thread>>() {
+      @Override
+      public List<Thread> run(Thread arg1, Thread arg2) {
+        return Lists.newArrayList(arg1, arg2, Thread.currentThread());
+      }
+    };
+
+    Graph<Thread> g1 = call(currentThread).executeOn(executorService);
+    Graph<Thread> g2 = call(currentThread);
+    List<Thread> threads = call(both).with(g1, g2).run().get(1, TimeUnit.SECONDS);
+
+    assertThat(threads.get(0), is(not(Thread.currentThread())));
+    assertThat(threads.get(1), is(Thread.currentThread()));
+  }
+
+  @Test
+  public void shouldQueueInvocationsBeyondConcurrencyLimit() throws Exception {
+    final List<SettableFuture<String>> futures = Lists.newArrayList();
+    Func1<String, String> node = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        SettableFuture<String> future = SettableFuture.create();
+        futures.add(future);
+        return future;
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<String> graph = call(node).with(input).maxConcurrency(1, 10);
+
+    ListenableFuture<String> first = graph.bind(input, "first").run();
+    ListenableFuture<String> second = graph.bind(input, "second").run();
+
+    assertThat(futures.size(), equalTo(1));
+
+    futures.get(0).set("done");
+
+    assertThat(first.get(), equalTo("done"));
+    assertThat(futures.size(), equalTo(2));
+    assertThat(second.isDone(), is(false));
+
+    futures.get(1).set("done too");
+
+    assertThat(second.get(), equalTo("done too"));
+  }
+
+  @Test
+  public void shouldResumeManyQueuedInvocationsWithoutGrowingTheStack() throws Exception {
+    final SettableFuture<String> blocking = SettableFuture.create();
+    final AtomicInteger invocations = new AtomicInteger();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return invocations.getAndIncrement() == 0 ? blocking : immediateFuture("done");
+      }
+    };
+
+    Graph<String> graph = call(node).maxConcurrency(1, 100000);
+
+    ListenableFuture<String> first = graph.run();
+    List<ListenableFuture<String>> queued = Lists.newArrayList();
+    for (int i = 0; i < 10000; i++) {
+      queued.add(graph.run());
+    }
+
+    blocking.set("first");
+
+    assertThat(first.get(), equalTo("first"));
+    for (ListenableFuture<String> future : queued) {
+      assertThat(future.get(), equalTo("done"));
+    }
+    assertThat(invocations.get(), equalTo(10001));
+  }
+
+  @Test
+  public void shouldRejectInvocationsWhenConcurrencyQueueIsFull() throws Exception {
+    Graph<String> graph = call(node1).maxConcurrency(1, 0)
+        .fallback(new AsyncFunction<Throwable, String>() {
+          @Override
+          public ListenableFuture<String> apply(Throwable input) {
+            return immediateFuture(input.getClass().getSimpleName());
+          }
+        });
+
+    ListenableFuture<String> first = graph.run();
+    ListenableFuture<String> second = graph.run();
+
+    assertThat(second.get(), equalTo("RejectedExecutionException"));
+
+    future1.set("first");
+
+    assertThat(first.get(), equalTo("first"));
+    assertThat(graph.run().get(), equalTo("first"));
+  }
+
+  @Test
+  public void shouldLimitConcurrencyAdaptively() throws Exception {
+    Graph<String> graph = call(node1).adaptiveConcurrency(1, 0).fallback(always("rejected"));
+
+    ListenableFuture<String> first = graph.run();
+
+    assertThat(graph.run().get(), equalTo("rejected"));
+
+    future1.set("first");
+
+    assertThat(first.get(), equalTo("first"));
+    assertThat(graph.run().get(), equalTo("first"));
+  }
+
+  @Test
+  public void shouldStartAdaptiveConcurrencyLimitLow() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        invocations.incrementAndGet();
+        return SettableFuture.create();
+      }
+    };
+
+    Graph<String> graph = call(node).adaptiveConcurrency(200, 1000);
+
+    for (int i = 0; i < 150; i++) {
+      graph.run();
+    }
+
+    assertThat(invocations.get(), equalTo(20));
+  }
+
+  @Test
+  public void shouldCoalesceConcurrentInvocationsWithEqualArguments() throws Exception {
+    final List<String> invocations = Lists.newArrayList();
+    final SettableFuture<String> result = SettableFuture.create();
+    Func1<String, String> node = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        invocations.add(arg);
+        return result;
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<String> graph = call(node).with(input).coalesce();
+
+    ListenableFuture<String> first = graph.bind(input, "a").run();
+    ListenableFuture<String> second = graph.bind(input, "a").run();
+    ListenableFuture<String> other = graph.bind(input, "b").run();
+
+    assertThat(invocations, equalTo((List<String>) Lists.newArrayList("a", "b")));
+
+    second.cancel(false);
+    result.set("done");
+
+    assertThat(first.get(), equalTo("done"));
+    assertThat(other.get(), equalTo("done"));
+
+    graph.bind(input, "a").run();
+
+    assertThat(invocations, equalTo((List<String>) Lists.newArrayList("a", "b", "a")));
+  }
+
+  @Test
+  public void shouldCompleteNodeFromCacheWithoutInvokingOrDispatchingIt() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    final AtomicInteger executions = new AtomicInteger();
+    Func1<String, String> node = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        invocations.incrementAndGet();
+        return immediateFuture(arg + "!");
+      }
+    };
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        executions.incrementAndGet();
+        command.run();
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<String> graph = call(node).with(input).cached(CacheSpec.maximumSize(10));
+
+    assertThat(graph.bind(input, "a").run(executor).get(), equalTo("a!"));
+    assertThat(graph.bind(input, "a").run(executor).get(), equalTo("a!"));
+    assertThat(graph.bind(input, "b").run(executor).get(), equalTo("b!"));
+
+    assertThat(invocations.get(), equalTo(2));
+    assertThat(executions.get(), equalTo(2));
+    assertThat(graph.cacheStats().get().hitCount(), equalTo(1L));
+    assertThat(graph.cacheStats().get().missCount(), equalTo(2L));
+  }
+
+  @Test
+  public void shouldNotCacheFallbackResults() throws Exception {
+    final AtomicInteger invocations = new AtomicInteger();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        invocations.incrementAndGet();
+        return immediateFailedFuture(new RuntimeException("expected"));
+      }
+    };
+
+    Graph<String> graph = call(node).cached(CacheSpec.maximumSize(10)).fallback(always("fb"));
+
+    assertThat(graph.run().get(), equalTo("fb"));
+    assertThat(graph.run().get(), equalTo("fb"));
+    assertThat(invocations.get(), equalTo(2));
+  }
+
+  @Test
+  public void shouldRunConsumersOfCachedNodesOnTheirExecutor() throws Exception {
+    SyncFunc1<String, String> node = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return arg + "!";
+      }
+    };
+    SyncFunc1<String, String> threadName = new SyncFunc1<String, String>() {
+      @Override
+      public String run(String arg) {
+        return Thread.currentThread().getName();
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("node-executor").build());
+
+    try {
+      Input<String> input = Input.named("input");
+      Graph<String> cached = call(node).with(input).cached(CacheSpec.maximumSize(10))
+          .executeOn(executor);
+      Graph<String> graph = call(threadName).with(cached).executeOn(executor);
+
+      assertThat(graph.bind(input, "a").run().get(1, TimeUnit.SECONDS), equalTo("node-executor"));
+
+      // the cache hit completes the cached node on the thread that sets the input
+      SettableFuture<String> value = SettableFuture.create();
+      ListenableFuture<String> result = graph.bind(input, value).run();
+      value.set("a");
+
+      assertThat(result.get(1, TimeUnit.SECONDS), equalTo("node-executor"));
+      assertThat(cached.cacheStats().get().hitCount(), equalTo(1L));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void shouldRefreshStaleCachedResults() throws Exception {
+    final SettableFuture<String> refreshed = SettableFuture.create();
+    final AtomicInteger invocations = new AtomicInteger();
+    final AtomicInteger executions = new AtomicInteger();
+    Func0<String> node = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return invocations.incrementAndGet() == 1 ? immediateFuture("first") : refreshed;
+      }
+    };
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        executions.incrementAndGet();
+        command.run();
+      }
+    };
+
+    Graph<String> graph = call(node).cached(
+        CacheSpec.maximumSize(10).refreshAfterWrite(5, TimeUnit.MILLISECONDS));
+
+    assertThat(graph.run(executor).get(), equalTo("first"));
+    Thread.sleep(10);
+
+    // the first run to find the stale result refreshes it, going through the executor like any
+    // other invocation, while other runs use the stale result
+    ListenableFuture<String> refreshing = graph.run(executor);
+
+    assertThat(graph.run(executor).get(), equalTo("first"));
+    assertThat(invocations.get(), equalTo(2));
+    assertThat(executions.get(), equalTo(2));
+
+    refreshed.set("second");
+
+    assertThat(refreshing.get(), equalTo("second"));
+    assertThat(graph.run(executor).get(), equalTo("second"));
+  }
+
+  private Graph<String> siblingsGraph(final ListenableFuture<String> inFlight,
+                                      ListenableFuture<String> inputFuture) {
+    Func0<String> slow = new Func0<String>() {
+      @Override
+      public ListenableFuture<String> run() {
+        return inFlight;
+      }
+    };
+    Func1<String, String> identity = new Func1<String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg) {
+        return immediateFuture(arg);
+      }
+    };
+    Func2<String, String, String> concat = new Func2<String, String, String>() {
+      @Override
+      public ListenableFuture<String> run(String arg1, String arg2) {
+        return immediateFuture(arg1 + arg2);
+      }
+    };
+
+    Input<String> input = Input.named("input");
+    Graph<String> g1 = call(slow);
+    Graph<String> g2 = call(identity).with(input);
+
+    return call(concat).with(g1, g2).bind(input, inputFuture);
+  }
 }